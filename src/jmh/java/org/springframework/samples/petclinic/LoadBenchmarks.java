@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load test of the application on platform threads and on virtual threads (the
+ * "virtual-threads" profile, which needs Java 21): each operation sends as many
+ * concurrent requests as there are clients to the owners list, to the owner details or
+ * to the vets page, and waits for all the responses, so that the time of an operation
+ * divided by the number of clients is the time per request at that concurrency.
+ * <p>
+ * The clients run in the same JVM as the application, on the sample data of the
+ * embedded H2 database, with as many connections as clients. Both modes accept the same
+ * number of connections, so that on platform threads the requests wait for the 200
+ * threads of the server, and on virtual threads for the database connections.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoadBenchmarks {
+
+	/**
+	 * The threads of the requests: "platform" or "virtual".
+	 */
+	@Param({ "platform", "virtual" })
+	public String threads;
+
+	/**
+	 * The number of concurrent clients.
+	 */
+	@Param({ "1000" })
+	public int clients;
+
+	private ConfigurableApplicationContext context;
+
+	private HttpClient client;
+
+	private String base;
+
+	@Setup(Level.Trial)
+	public void start() {
+		boolean virtual = "virtual".equals(this.threads);
+		if (virtual && Runtime.version().feature() < 21) {
+			throw new IllegalStateException("Virtual threads need Java 21, running on " + Runtime.version());
+		}
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(PetClinicApplication.class)
+			.bannerMode(Banner.Mode.OFF)
+			.properties("logging.level.root=WARN", "server.port=0", "spring.docker.compose.enabled=false",
+					"petclinic.profiler.enabled=false", "server.tomcat.max-connections=10000",
+					"server.tomcat.accept-count=1000",
+					// devtools would shut the database down a second time when stopping
+					"spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration");
+		if (virtual) {
+			builder.profiles("virtual-threads");
+		}
+		this.context = builder.run();
+		int port = ((WebServerApplicationContext) this.context).getWebServer().getPort();
+		this.base = "http://localhost:" + port;
+		this.client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(30))
+			.build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public int ownersList() {
+		return wave(i -> "/owners?page=" + (i % 2 + 1));
+	}
+
+	@Benchmark
+	public int ownerDetails() {
+		return wave(i -> "/owners/" + (i % 10 + 1));
+	}
+
+	@Benchmark
+	public int vetsPage() {
+		return wave(i -> "/vets.html");
+	}
+
+	/**
+	 * Send a request per client to the given paths at once, and wait for all of them.
+	 * @return the total length of the responses
+	 */
+	private int wave(IntFunction<String> path) {
+		List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>(this.clients);
+		for (int i = 0; i < this.clients; i++) {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(this.base + path.apply(i)))
+				.timeout(Duration.ofMinutes(1))
+				.build();
+			responses.add(this.client.sendAsync(request, BodyHandlers.ofByteArray()));
+		}
+		int length = 0;
+		for (CompletableFuture<HttpResponse<byte[]>> future : responses) {
+			HttpResponse<byte[]> response = future.join();
+			if (response.statusCode() != 200) {
+				throw new IllegalStateException(response.uri() + " answered " + response.statusCode());
+			}
+			length += response.body().length;
+		}
+		return length;
+	}
+
+}
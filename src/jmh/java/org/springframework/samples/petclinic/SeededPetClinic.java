@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic;
+
+import static org.jooq.generated.tables.Owners.OWNERS;
+import static org.jooq.generated.tables.Pets.PETS;
+import static org.jooq.generated.tables.Specialties.SPECIALTIES;
+import static org.jooq.generated.tables.VetSpecialties.VET_SPECIALTIES;
+import static org.jooq.generated.tables.Vets.VETS;
+import static org.jooq.impl.DSL.*;
+
+import java.time.LocalDate;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * The application, listening on a random port, on an embedded H2 database seeded with the
+ * sample data plus generated owners having one pet each, up to the given number of
+ * owners.
+ * <p>
+ * The generated last names start with two letters picked from the owner id, so that a
+ * two letter prefix matches about one owner in 676.
+ * </p>
+ * <p>
+ * It is also seeded with generated specialties and vets up to the given number of vets,
+ * each generated vet having about half of the specialties.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class SeededPetClinic {
+
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	/**
+	 * The number of owners.
+	 */
+	@Param({ "1000", "100000", "1000000" })
+	public int owners;
+
+	/**
+	 * The number of vets.
+	 */
+	@Param({ "5000" })
+	public int vets;
+
+	/**
+	 * The number of specialties.
+	 */
+	@Param({ "20" })
+	public int specialties;
+
+	private ConfigurableApplicationContext context;
+
+	@Setup(Level.Trial)
+	public void start() {
+		this.context = new SpringApplicationBuilder(PetClinicApplication.class).bannerMode(Banner.Mode.OFF)
+			// the controllers need the web infrastructure, on a random port
+			.properties("logging.level.root=WARN", "server.port=0", "spring.docker.compose.enabled=false",
+					// devtools would shut the database down a second time when stopping
+					"spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration")
+			.run();
+		seed(getBean(DSLContext.class), this.owners);
+		seedVets(getBean(DSLContext.class), this.vets, this.specialties);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		this.context.close();
+	}
+
+	public <T> T getBean(Class<T> type) {
+		return this.context.getBean(type);
+	}
+
+	private static void seed(DSLContext dsl, int owners) {
+		int existing = dsl.fetchCount(OWNERS);
+		Field<Integer> i = field(name("i"), Integer.class);
+		dsl.insertInto(OWNERS, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE)
+			.select(select(val("George"),
+					concat(upper(substring(val(LETTERS), i.mod(26).plus(1), inline(1))),
+							substring(val(LETTERS), i.div(26).mod(26).plus(1), inline(1)), val("son"),
+							i.cast(String.class)),
+					val("110 W. Liberty St."), val("Madison"), val("6085551023"))
+				.from(generateSeries(existing + 1, owners).as("t", "i")))
+			.execute();
+		dsl.insertInto(PETS, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID, PETS.OWNER_ID)
+			.select(select(concat(val("Pet"), OWNERS.ID.cast(String.class)), val(LocalDate.of(2015, 1, 1)),
+					OWNERS.ID.mod(6).plus(1), OWNERS.ID)
+				.from(OWNERS)
+				.where(OWNERS.ID.gt(existing)))
+			.execute();
+		dsl.execute("ANALYZE");
+	}
+
+	private static void seedVets(DSLContext dsl, int vets, int specialties) {
+		int existingVets = dsl.fetchCount(VETS);
+		int existingSpecialties = dsl.fetchCount(SPECIALTIES);
+		Field<Integer> i = field(name("i"), Integer.class);
+		dsl.insertInto(SPECIALTIES, SPECIALTIES.NAME)
+			.select(select(concat(val("specialty"), i.cast(String.class)))
+				.from(generateSeries(existingSpecialties + 1, specialties).as("t", "i")))
+			.execute();
+		dsl.insertInto(VETS, VETS.FIRST_NAME, VETS.LAST_NAME)
+			.select(select(val("Jane"), concat(val("Vet"), i.cast(String.class)))
+				.from(generateSeries(existingVets + 1, vets).as("t", "i")))
+			.execute();
+		dsl.insertInto(VET_SPECIALTIES, VET_SPECIALTIES.VET_ID, VET_SPECIALTIES.SPECIALTY_ID)
+			.select(select(VETS.ID, SPECIALTIES.ID).from(VETS)
+				.crossJoin(SPECIALTIES)
+				.where(VETS.ID.gt(existingVets))
+				.and(VETS.ID.plus(SPECIALTIES.ID).mod(2).eq(0)))
+			.execute();
+		dsl.execute("ANALYZE");
+	}
+
+}
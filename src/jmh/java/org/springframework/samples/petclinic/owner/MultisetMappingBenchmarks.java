@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.jooq.generated.tables.Pets.PETS;
+import static org.jooq.generated.tables.Specialties.SPECIALTIES;
+import static org.jooq.generated.tables.Types.TYPES;
+import static org.jooq.generated.tables.Visits.VISITS;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.Converter;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.vet.Specialty;
+import org.springframework.samples.petclinic.vet.VetRepository;
+
+/**
+ * Benchmarks of the <code>convertFrom</code> mappers of the <code>MULTISET_*</code>
+ * fields, applied to results built in memory, without reading or parsing the nested
+ * results returned by the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultisetMappingBenchmarks {
+
+	/**
+	 * The number of rows of each nested result.
+	 */
+	@Param({ "2", "20" })
+	public int rows;
+
+	private Result<Record> pets;
+
+	private Result<Record> petsWithVisits;
+
+	private Result<Record> visits;
+
+	private Result<Record> specialties;
+
+	@Setup
+	public void setup() {
+		DSLContext dsl = DSL.using(SQLDialect.H2);
+		this.pets = dsl.newResult(new Field<?>[] { PETS.ID, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID, PETS.OWNER_ID,
+				TYPES.ID, TYPES.NAME });
+		this.petsWithVisits = dsl.newResult(new Field<?>[] { PETS.ID, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID,
+				TYPES.NAME, OwnerRepository.MULTISET_RECENT_VISITS, OwnerRepository.VISIT_COUNT });
+		this.visits = dsl.newResult(new Field<?>[] { VISITS.ID, VISITS.PET_ID, VISITS.VISIT_DATE, VISITS.DESCRIPTION });
+		this.specialties = dsl.newResult(new Field<?>[] { SPECIALTIES.ID, SPECIALTIES.NAME });
+
+		List<Visit> recentVisits = List.of(new Visit(1, LocalDate.of(2013, 1, 1), "rabies shot"),
+				new Visit(4, LocalDate.of(2013, 1, 4), "spayed"));
+		for (int i = 1; i <= this.rows; i++) {
+			LocalDate birthDate = LocalDate.of(2015, 1, 1).plusDays(i);
+			add(dsl, this.pets, i, "Pet" + i, birthDate, 1, 1, 1, "cat");
+			add(dsl, this.petsWithVisits, i, "Pet" + i, birthDate, 1, "cat", recentVisits, recentVisits.size());
+			add(dsl, this.visits, i, 1, birthDate, "check-up");
+			add(dsl, this.specialties, i, "specialty" + i);
+		}
+	}
+
+	private static void add(DSLContext dsl, Result<Record> result, Object... values) {
+		Record record = dsl.newRecord(result.fields());
+		record.fromArray(values);
+		result.add(record);
+	}
+
+	@Benchmark
+	public List<Pet> mapPets() {
+		return convert(OwnerRepository.MULTISET_PETS, this.pets);
+	}
+
+	@Benchmark
+	public List<Pet> mapPetsWithVisits() {
+		return convert(OwnerRepository.MULTISET_PETS_WITH_VISITS, this.petsWithVisits);
+	}
+
+	@Benchmark
+	public List<Visit> mapRecentVisits() {
+		return convert(OwnerRepository.MULTISET_RECENT_VISITS, this.visits);
+	}
+
+	@Benchmark
+	public List<Specialty> mapSpecialties() {
+		return convert(VetRepository.MULTISET_SPECIALITIES, this.specialties);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T convert(Field<T> field, Result<Record> result) {
+		return ((Converter<Result<Record>, T>) field.getConverter()).from(result);
+	}
+
+}
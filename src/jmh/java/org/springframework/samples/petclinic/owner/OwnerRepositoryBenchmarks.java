@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.SeededPetClinic;
+import org.springframework.samples.petclinic.system.CountStrategy;
+import org.springframework.samples.petclinic.system.Page;
+import org.springframework.samples.petclinic.system.Pageable;
+
+/**
+ * Benchmarks of the owner search and of the owner details page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OwnerRepositoryBenchmarks {
+
+	/**
+	 * Owner 6 of the sample data, who has two pets with two visits each.
+	 */
+	private static final int OWNER_ID = 6;
+
+	private OwnerRepository owners;
+
+	private OwnerCache cache;
+
+	@Setup
+	public void setup(SeededPetClinic petclinic) {
+		this.owners = petclinic.getBean(OwnerRepository.class);
+		this.cache = petclinic.getBean(OwnerCache.class);
+	}
+
+	@Benchmark
+	public Page<Owner> findByLastNamePrefix() {
+		return this.owners.findByLastNameWithPetsOnly("Da",
+				Pageable.of(0, 5).withCountStrategy(CountStrategy.EXACT));
+	}
+
+	@Benchmark
+	public Page<Owner> findByLastNamePrefixWithoutCount() {
+		return this.owners.findByLastNameWithPetsOnly("Da", Pageable.of(0, 5).withCountStrategy(CountStrategy.NONE));
+	}
+
+	@Benchmark
+	public Optional<Owner> findByIdWithPetsAndVisitsCached() {
+		return this.owners.findByIdWithPetsAndVisits(OWNER_ID);
+	}
+
+	@Benchmark
+	public Optional<Owner> findByIdWithPetsAndVisitsUncached() {
+		this.cache.evict(OWNER_ID);
+		return this.owners.findByIdWithPetsAndVisits(OWNER_ID);
+	}
+
+}
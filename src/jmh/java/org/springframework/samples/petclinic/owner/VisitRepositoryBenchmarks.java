@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.SeededPetClinic;
+import org.springframework.samples.petclinic.owner.VisitRepository.BatchItem;
+
+/**
+ * Benchmarks of the creation of a batch of visits, spread over the pets of the sample
+ * data, saved at once or one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class VisitRepositoryBenchmarks {
+
+	/**
+	 * The number of visits of the batch.
+	 */
+	@Param({ "10000" })
+	public int visits;
+
+	private VisitRepository repository;
+
+	private final List<Visit> batch = new ArrayList<>();
+
+	@Setup
+	public void setup(SeededPetClinic petclinic) {
+		this.repository = petclinic.getBean(VisitRepository.class);
+		for (int i = 0; i < this.visits; i++) {
+			this.batch.add(new Visit(LocalDate.of(2024, 1, 1).plusDays(i % 365), "check-up", 1 + i % 13));
+		}
+	}
+
+	@Benchmark
+	public List<BatchItem> saveAll() {
+		return this.repository.saveAll(this.batch);
+	}
+
+	@Benchmark
+	public int saveDetailsOneByOne() {
+		int saved = 0;
+		for (Visit visit : this.batch) {
+			saved += this.repository.saveDetails(visit);
+		}
+		return saved;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.jooq.generated.tables.Owners.OWNERS;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+
+/**
+ * Benchmarks of the construction and rendering of the SQL of a page of the owner search,
+ * without any database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JooqHelperBenchmarks {
+
+	private static final Field<?>[] SORT = { OWNERS.LAST_NAME, OWNERS.ID };
+
+	private final DSLContext dsl = DSL.using(SQLDialect.H2);
+
+	private final Select<?> search = this.dsl
+		.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE,
+				OwnerRepository.MULTISET_PETS)
+		.from(OWNERS)
+		.where(OWNERS.LAST_NAME.like("Da%"));
+
+	@Benchmark
+	public String renderPaginate() {
+		return this.dsl.render(JooqHelper.paginate(this.dsl, this.search, SORT, 5, 10));
+	}
+
+	@Benchmark
+	public String renderSlice() {
+		return this.dsl.render(JooqHelper.slice(this.dsl, this.search, SORT, new Object[] { "Davis", 42 }, 5, 0));
+	}
+
+}
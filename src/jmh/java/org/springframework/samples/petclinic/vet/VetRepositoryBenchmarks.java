@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vet;
+
+import static org.jooq.generated.tables.Vets.VETS;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.samples.petclinic.SeededPetClinic;
+import org.springframework.samples.petclinic.system.Page;
+import org.springframework.samples.petclinic.system.Pageable;
+
+/**
+ * Benchmarks of the list of vets, read from the "vets" cache or from the database, and of
+ * a page of vets read from the "vetPages" cache. The query of all vets is compared with
+ * the former one, which joined the specialties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class VetRepositoryBenchmarks {
+
+	private static final Pageable PAGE = Pageable.of(0, 5);
+
+	private VetRepository vets;
+
+	private Cache cache;
+
+	private DSLContext dsl;
+
+	@Setup
+	public void setup(SeededPetClinic petclinic) {
+		this.vets = petclinic.getBean(VetRepository.class);
+		this.cache = petclinic.getBean(CacheManager.class).getCache("vets");
+		this.dsl = petclinic.getBean(DSLContext.class);
+	}
+
+	@Benchmark
+	public List<Vet> findAllCached() {
+		return this.vets.findAll();
+	}
+
+	@Benchmark
+	public List<Vet> findAllUncached() {
+		this.cache.clear();
+		return this.vets.findAll();
+	}
+
+	@Benchmark
+	public List<Vet> fetchAll() {
+		return this.vets.fetchAll();
+	}
+
+	/**
+	 * The former query of all vets, which joined the specialties besides nesting them, so
+	 * that each vet was read and mapped once per specialty.
+	 */
+	@Benchmark
+	public List<Vet> fetchAllJoiningSpecialties() {
+		return this.dsl
+			.select(VETS.ID, VETS.FIRST_NAME, VETS.LAST_NAME, VetRepository.MULTISET_SPECIALITIES)
+			.from(VETS)
+			.leftJoin(VETS.vetSpecialties())
+			.orderBy(VETS.ID)
+			.fetch(row -> new Vet(row.value1(), row.value2(), row.value3(), new HashSet<>(row.value4())));
+	}
+
+	@Benchmark
+	public Page<Vet> findPageCached() {
+		return this.vets.findAll(PAGE);
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index of the distinct owner last names and of the number of owners having
+ * each of them, used to suggest last names while typing without querying the database.
+ * <p>
+ * Names are kept in arrays sorted by their lower-cased form, so that a case-insensitive
+ * prefix lookup is a binary search followed by a scan of the matching range. Lookups read
+ * an immutable snapshot without locking; updates are rare and copy it.
+ * </p>
+ */
+public class LastNameIndex {
+
+	/**
+	 * A suggested last name and the number of owners having it.
+	 */
+	public record Suggestion(String lastName, int count) {
+	}
+
+	private record Snapshot(String[] keys, String[] names, int[] counts) {
+	}
+
+	private static final Comparator<String> ORDER = Comparator.comparing(LastNameIndex::key)
+		.thenComparing(Comparator.naturalOrder());
+
+	private volatile Snapshot snapshot;
+
+	public boolean isLoaded() {
+		return snapshot != null;
+	}
+
+	/**
+	 * Replace the content of this index.
+	 * @param countsByLastName the number of owners by last name
+	 */
+	public synchronized void load(Map<String, Integer> countsByLastName) {
+		String[] names = countsByLastName.keySet().stream().filter(name -> name != null).toArray(String[]::new);
+		Arrays.sort(names, ORDER);
+		String[] keys = new String[names.length];
+		int[] counts = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			keys[i] = key(names[i]);
+			counts[i] = countsByLastName.get(names[i]);
+		}
+		snapshot = new Snapshot(keys, names, counts);
+	}
+
+	/**
+	 * Record an owner with the given last name. Ignored until the index is loaded.
+	 */
+	public synchronized void add(String lastName) {
+		Snapshot s = snapshot;
+		if (s == null || lastName == null) {
+			return;
+		}
+		int i = indexOf(s, lastName);
+		if (i >= 0) {
+			int[] counts = s.counts.clone();
+			counts[i]++;
+			snapshot = new Snapshot(s.keys, s.names, counts);
+		}
+		else {
+			int at = -i - 1;
+			snapshot = new Snapshot(insert(s.keys, at, key(lastName)), insert(s.names, at, lastName),
+					insert(s.counts, at, 1));
+		}
+	}
+
+	/**
+	 * Forget an owner with the given last name. Ignored until the index is loaded.
+	 */
+	public synchronized void remove(String lastName) {
+		Snapshot s = snapshot;
+		if (s == null || lastName == null) {
+			return;
+		}
+		int i = indexOf(s, lastName);
+		if (i < 0) {
+			return;
+		}
+		if (s.counts[i] > 1) {
+			int[] counts = s.counts.clone();
+			counts[i]--;
+			snapshot = new Snapshot(s.keys, s.names, counts);
+		}
+		else {
+			snapshot = new Snapshot(delete(s.keys, i), delete(s.names, i), delete(s.counts, i));
+		}
+	}
+
+	/**
+	 * Return the first last names in alphabetical order starting with the given prefix,
+	 * ignoring case.
+	 * @param prefix the beginning of the last name
+	 * @param limit the maximum number of suggestions
+	 */
+	public List<Suggestion> suggest(String prefix, int limit) {
+		Snapshot s = snapshot;
+		if (s == null || limit <= 0) {
+			return List.of();
+		}
+		String key = key(prefix == null ? "" : prefix);
+		int from = lowerBound(s.keys, key);
+		int to = from;
+		while (to < s.keys.length && to - from < limit && s.keys[to].startsWith(key)) {
+			to++;
+		}
+		Suggestion[] suggestions = new Suggestion[to - from];
+		for (int i = from; i < to; i++) {
+			suggestions[i - from] = new Suggestion(s.names[i], s.counts[i]);
+		}
+		return List.of(suggestions);
+	}
+
+	private static String key(String lastName) {
+		return lastName.toLowerCase(Locale.ROOT);
+	}
+
+	private static int indexOf(Snapshot s, String lastName) {
+		String key = key(lastName);
+		int low = 0;
+		int high = s.keys.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = s.keys[mid].compareTo(key);
+			if (cmp == 0) {
+				cmp = s.names[mid].compareTo(lastName);
+			}
+			if (cmp < 0) {
+				low = mid + 1;
+			}
+			else if (cmp > 0) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int lowerBound(String[] keys, String key) {
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid].compareTo(key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static String[] insert(String[] array, int at, String value) {
+		String[] copy = new String[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, at);
+		copy[at] = value;
+		System.arraycopy(array, at, copy, at + 1, array.length - at);
+		return copy;
+	}
+
+	private static int[] insert(int[] array, int at, int value) {
+		int[] copy = new int[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, at);
+		copy[at] = value;
+		System.arraycopy(array, at, copy, at + 1, array.length - at);
+		return copy;
+	}
+
+	private static String[] delete(String[] array, int at) {
+		String[] copy = new String[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, at);
+		System.arraycopy(array, at + 1, copy, at, copy.length - at);
+		return copy;
+	}
+
+	private static int[] delete(int[] array, int at) {
+		int[] copy = new int[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, at);
+		System.arraycopy(array, at + 1, copy, at, copy.length - at);
+		return copy;
+	}
+
+}
@@ -48,6 +48,8 @@ public class Owner extends Person {
 
 	private final List<Pet> pets = new ArrayList<>();
 
+	private int version;
+
 	public Owner() {
 	}
 
@@ -84,6 +86,18 @@ public class Owner extends Person {
 		this.telephone = telephone;
 	}
 
+	/**
+	 * Return the version of the owner's row when it was read, which an update expects to
+	 * be unchanged in the data store.
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	public List<Pet> getPets() {
 		return this.pets;
 	}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.samples.petclinic.system.CountStrategy;
+import org.springframework.samples.petclinic.system.JooqHelper.CachedCount;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of {@link Owner} aggregates (owner, pets and visits) by owner id, backed by the
+ * "owners" cache of the {@link CacheManager}.
+ * <p>
+ * Owners are mutable and bound to forms, so every lookup returns a copy of the cached
+ * aggregate. Entries are evicted by the repositories writing to owners, pets or visits,
+ * both immediately and once the transaction completes, so that an aggregate read before
+ * the commit, or read within a transaction that is rolled back, is not kept.
+ * </p>
+ * <p>
+ * The totals of the owner searches counted with {@link CountStrategy#CACHED} are kept in
+ * the "ownerCounts" cache by searched last name, and evicted the same way when owners are
+ * added or renamed.
+ * </p>
+ */
+@Component
+public class OwnerCache {
+
+	private final Cache cache;
+
+	private final Cache counts;
+
+	public OwnerCache(CacheManager cacheManager) {
+		this.cache = requireNonNull(cacheManager.getCache("owners"), "No owners cache");
+		this.counts = requireNonNull(cacheManager.getCache("ownerCounts"), "No ownerCounts cache");
+	}
+
+	/**
+	 * Return a copy of the cached owner, loading it if needed. The load is atomic, so an
+	 * eviction waits for a concurrent load of the same owner instead of being overwritten
+	 * by it. Missing owners are cached too, which is why new owners are evicted as well.
+	 */
+	Optional<Owner> get(Integer ownerId, Function<Integer, Optional<Owner>> loader) {
+		Owner owner = cache.get(ownerId, () -> loader.apply(ownerId).orElse(null));
+		return Optional.ofNullable(owner).map(OwnerCache::copy);
+	}
+
+	/**
+	 * Evict the owner with the given id.
+	 */
+	void evict(Integer ownerId) {
+		cache.evict(ownerId);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					cache.evict(ownerId);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evict all the owners and the totals of the searches, after writes to many of them.
+	 */
+	void clear() {
+		cache.clear();
+		clearCounts();
+	}
+
+	/**
+	 * Return where the total of a search of owners by the given last name prefix is
+	 * cached.
+	 */
+	CachedCount count(String lastName) {
+		return new CachedCount(counts, (lastName != null) ? lastName.toLowerCase(Locale.ROOT) : "");
+	}
+
+	/**
+	 * Evict the totals of all the searches, once an owner has been added or renamed.
+	 */
+	void clearCounts() {
+		counts.clear();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					counts.clear();
+				}
+			});
+		}
+	}
+
+	private static Owner copy(Owner owner) {
+		Owner copy = new Owner(owner.getId(), owner.getFirstName(), owner.getLastName(), owner.getAddress(),
+				owner.getCity(), owner.getTelephone(), owner.getPets().stream().map(OwnerCache::copy).toList());
+		copy.setVersion(owner.getVersion());
+		return copy;
+	}
+
+	private static Pet copy(Pet pet) {
+		Pet copy = new Pet(pet.getId(), pet.getName(), pet.getBirthDate(), pet.getType(), pet.getVisits(),
+				pet.getVisitCount());
+		copy.setVersion(pet.getVersion());
+		return copy;
+	}
+
+}
@@ -16,12 +16,17 @@
 package org.springframework.samples.petclinic.owner;
 
 import java.util.List;
-import java.util.Optional;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.system.CountStrategy;
+import org.springframework.samples.petclinic.system.Cursor;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -30,7 +35,8 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 
 import jakarta.validation.Valid;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
@@ -49,8 +55,12 @@ class OwnerController {
 
 	private final OwnerRepository owners;
 
-	public OwnerController(OwnerRepository owners) {
+	private final CountStrategy countStrategy;
+
+	public OwnerController(OwnerRepository owners,
+			@Value("${petclinic.owners.count-strategy:EXACT}") CountStrategy countStrategy) {
 		this.owners = owners;
+		this.countStrategy = countStrategy;
 	}
 
 	@InitBinder
@@ -61,7 +71,7 @@ class OwnerController {
 	@ModelAttribute("owner")
 	public Owner findOwner(@PathVariable(name = "ownerId", required = false) Integer ownerId) {
 		return ownerId == null ? new Owner()
-				: this.owners.findByIdWithPetsAndVisits(ownerId)
+				: this.owners.findById(ownerId)
 					.orElseThrow(() -> new IllegalArgumentException("Owner not found with id: " + ownerId
 							+ ". Please ensure the ID is correct " + "and the owner exists in the database."));
 	}
@@ -89,15 +99,15 @@ class OwnerController {
 	}
 
 	@GetMapping("/owners")
-	public String processFindForm(@RequestParam(defaultValue = "1") int page, Owner owner, BindingResult result,
-			Model model) {
+	public String processFindForm(@RequestParam(defaultValue = "1") int page,
+			@RequestParam(required = false) String cursor, Owner owner, BindingResult result, Model model) {
 		// allow parameterless GET request for /owners to return all records
 		if (owner.getLastName() == null) {
 			owner.setLastName(""); // empty string signifies broadest possible search
 		}
 
 		// find owners by last name
-		Page<Owner> ownersResults = findPaginatedForOwnersLastName(page, owner.getLastName());
+		Page<Owner> ownersResults = findPaginatedForOwnersLastName(page, cursor, owner.getLastName());
 		if (ownersResults.isEmpty()) {
 			// no owners found
 			result.rejectValue("lastName", "notFound", "not found");
@@ -119,16 +129,40 @@ class OwnerController {
 		model.addAttribute("currentPage", page);
 		model.addAttribute("totalPages", paginated.getTotalPages());
 		model.addAttribute("totalItems", paginated.getTotalElements());
+		model.addAttribute("totalExact", paginated.isTotalExact());
+		model.addAttribute("nextCursor", paginated.getNextCursor());
 		model.addAttribute("listOwners", listOwners);
 		return "owners/ownersList";
 	}
 
-	private Page<Owner> findPaginatedForOwnersLastName(int page, String lastname) {
+	private Page<Owner> findPaginatedForOwnersLastName(int page, String cursor, String lastname) {
 		int pageSize = 5;
-		Pageable pageable = Pageable.of(page - 1, pageSize);
+		Pageable pageable = Pageable.of(page - 1, pageSize).withCountStrategy(countStrategy);
+		if (StringUtils.hasText(cursor)) {
+			try {
+				pageable = pageable.after(Cursor.decode(cursor, 2));
+			}
+			catch (IllegalArgumentException ex) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+			}
+		}
 		return owners.findByLastNameWithPetsOnly(lastname, pageable);
 	}
 
+	/**
+	 * Suggest last names for the type-ahead of the find form.
+	 * @param prefix the beginning of the last name typed so far
+	 * @param limit the maximum number of suggestions, at most 50
+	 */
+	@GetMapping("/owners/suggest")
+	public @ResponseBody List<LastNameIndex.Suggestion> suggestLastNames(
+			@RequestParam(name = "q", defaultValue = "") String prefix, @RequestParam(defaultValue = "10") int limit) {
+		if (!StringUtils.hasText(prefix)) {
+			return List.of();
+		}
+		return this.owners.suggestLastNames(prefix.strip(), Math.min(limit, 50));
+	}
+
 	@GetMapping("/owners/{ownerId}/edit")
 	public String initUpdateOwnerForm() {
 		return VIEWS_OWNER_CREATE_OR_UPDATE_FORM;
@@ -149,24 +183,16 @@ class OwnerController {
 		}
 
 		owner.setId(ownerId);
-		this.owners.saveOrUpdateDetails(owner);
+		try {
+			this.owners.saveOrUpdateDetails(owner);
+		}
+		catch (OptimisticLockingFailureException ex) {
+			redirectAttributes.addFlashAttribute("error",
+					"The owner was changed by someone else in the meantime. Please review and edit again.");
+			return "redirect:/owners/{ownerId}";
+		}
 		redirectAttributes.addFlashAttribute("message", "Owner Values Updated");
 		return "redirect:/owners/{ownerId}";
 	}
 
-	/**
-	 * Custom handler for displaying an owner.
-	 * @param ownerId the ID of the owner to display
-	 * @return a ModelMap with the model attributes for the view
-	 */
-	@GetMapping("/owners/{ownerId}")
-	public ModelAndView showOwner(@PathVariable("ownerId") int ownerId) {
-		ModelAndView mav = new ModelAndView("owners/ownerDetails");
-		Optional<Owner> optionalOwner = this.owners.findByIdWithPetsAndVisits(ownerId);
-		Owner owner = optionalOwner.orElseThrow(() -> new IllegalArgumentException(
-				"Owner not found with id: " + ownerId + ". Please ensure the ID is correct "));
-		mav.addObject(owner);
-		return mav;
-	}
-
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.Locale;
+import java.util.Optional;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.CollectionUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.support.RequestContextUtils;
+
+/**
+ * Details of an owner with their pets and visits. Unlike the forms of the
+ * {@link OwnerController}, the details have no owner model attribute, so that a
+ * revalidated page is answered without reading the owner.
+ */
+@Controller
+class OwnerDetailsController {
+
+	private final OwnerRepository owners;
+
+	public OwnerDetailsController(OwnerRepository owners) {
+		this.owners = owners;
+	}
+
+	/**
+	 * Custom handler for displaying an owner.
+	 * <p>
+	 * The page is tagged with the version of the owner with its pets and visits, and with
+	 * the locale it is rendered for, so that a browser revalidating it gets a 304 without
+	 * the owner being read or the page rendered. Pages showing a flash message after a
+	 * redirect are neither tagged nor stored.
+	 * </p>
+	 * @param ownerId the ID of the owner to display
+	 * @return a ModelMap with the model attributes for the view, or <code>null</code> if
+	 * the page was not modified
+	 */
+	@GetMapping("/owners/{ownerId}")
+	public ModelAndView showOwner(@PathVariable("ownerId") int ownerId, ServletWebRequest request, Locale locale) {
+		if (CollectionUtils.isEmpty(RequestContextUtils.getInputFlashMap(request.getRequest()))) {
+			long version = this.owners.findAggregateVersion(ownerId)
+				.orElseThrow(() -> new IllegalArgumentException(
+						"Owner not found with id: " + ownerId + ". Please ensure the ID is correct "));
+			request.getResponse()
+				.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+			if (request.checkNotModified(ownerId + "-" + version + "-" + locale.toLanguageTag())) {
+				return null;
+			}
+		}
+		else {
+			request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+		}
+		ModelAndView mav = new ModelAndView("owners/ownerDetails");
+		Optional<Owner> optionalOwner = this.owners.findByIdWithPetsAndVisits(ownerId);
+		Owner owner = optionalOwner.orElseThrow(() -> new IllegalArgumentException(
+				"Owner not found with id: " + ownerId + ". Please ensure the ID is correct "));
+		mav.addObject(owner);
+		return mav;
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.function.BiFunction;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.owner.OwnerExporter.Format;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Export of the owners, pets and visits of a clinic, see {@link OwnerExporter}. The rows
+ * are streamed to the response as CSV, or as NDJSON with <code>format=ndjson</code>.
+ */
+@Controller
+class OwnerExportController {
+
+	private final OwnerExporter exporter;
+
+	public OwnerExportController(OwnerExporter exporter) {
+		this.exporter = exporter;
+	}
+
+	@GetMapping("/api/owners:export")
+	public ResponseEntity<StreamingResponseBody> exportOwners(@RequestParam(defaultValue = "csv") String format) {
+		return export("owners", format, this.exporter::exportOwners);
+	}
+
+	@GetMapping("/api/pets:export")
+	public ResponseEntity<StreamingResponseBody> exportPets(@RequestParam(defaultValue = "csv") String format) {
+		return export("pets", format, this.exporter::exportPets);
+	}
+
+	@GetMapping("/api/visits:export")
+	public ResponseEntity<StreamingResponseBody> exportVisits(@RequestParam(defaultValue = "csv") String format) {
+		return export("visits", format, this.exporter::exportVisits);
+	}
+
+	private static ResponseEntity<StreamingResponseBody> export(String name, String format,
+			BiFunction<Format, OutputStream, Long> exporter) {
+		Format exportFormat;
+		try {
+			exportFormat = Format.valueOf(format.toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException ex) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format: " + format, ex);
+		}
+		return ResponseEntity.ok()
+			.contentType(MediaType.parseMediaType(exportFormat.getMediaType()))
+			.header(HttpHeaders.CONTENT_DISPOSITION,
+					ContentDisposition.attachment()
+						.filename(name + "." + exportFormat.getExtension())
+						.build()
+						.toString())
+			.body(out -> exporter.apply(exportFormat, out));
+	}
+
+}
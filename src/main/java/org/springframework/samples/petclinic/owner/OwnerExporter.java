@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.jooq.generated.Tables.OWNERS;
+import static org.jooq.generated.Tables.PETS;
+import static org.jooq.generated.Tables.TYPES;
+import static org.jooq.generated.Tables.VISITS;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.samples.petclinic.system.ShardRouter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Full export of the owners, pets and visits of the clinic, as CSV or NDJSON files.
+ * <p>
+ * The rows are read with a database cursor, the fetch size at a time, and written to the
+ * output stream as they are read, so that the memory used does not depend on the size of
+ * the tables. PostgreSQL only uses a cursor outside of auto-commit, so the rows are read
+ * in a read-only transaction, and MySQL only when the connection has
+ * <code>useCursorFetch=true</code>.
+ * </p>
+ * <p>
+ * The CSV files have the columns read by {@link OwnerImporter}, so that an export can be
+ * imported again. With several shards, see {@link ShardRouter}, the shards are exported
+ * one after the other, each in a read-only transaction of its own, so that the rows are
+ * sorted by id within each shard only.
+ * </p>
+ */
+@Component
+public class OwnerExporter {
+
+	private static final Logger logger = LoggerFactory.getLogger(OwnerExporter.class);
+
+	/**
+	 * The formats of the exports.
+	 */
+	public enum Format {
+
+		CSV("text/csv", "csv"), NDJSON("application/x-ndjson", "ndjson");
+
+		private final String mediaType;
+
+		private final String extension;
+
+		Format(String mediaType, String extension) {
+			this.mediaType = mediaType;
+			this.extension = extension;
+		}
+
+		public String getMediaType() {
+			return this.mediaType;
+		}
+
+		public String getExtension() {
+			return this.extension;
+		}
+
+	}
+
+	private final ShardRouter shards;
+
+	private final ObjectMapper objectMapper;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int fetchSize;
+
+	public OwnerExporter(ShardRouter shards, ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+			@Value("${petclinic.export.fetch-size:1000}") int fetchSize) {
+		this.shards = shards;
+		this.objectMapper = objectMapper;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setReadOnly(true);
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Write all the owners, by id, to the given stream.
+	 * @return the number of owners written
+	 */
+	public long exportOwners(Format format, OutputStream out) {
+		return export(OWNERS, format, out, dsl -> dsl
+			.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE)
+			.from(OWNERS)
+			.orderBy(OWNERS.ID));
+	}
+
+	/**
+	 * Write all the pets, by id, to the given stream, with the name of their type.
+	 * @return the number of pets written
+	 */
+	public long exportPets(Format format, OutputStream out) {
+		return export(PETS, format, out,
+				dsl -> dsl.select(PETS.ID, PETS.NAME, PETS.BIRTH_DATE, TYPES.NAME.as("type"), PETS.OWNER_ID)
+					.from(PETS)
+					.join(TYPES)
+					.on(TYPES.ID.eq(PETS.TYPE_ID))
+					.orderBy(PETS.ID));
+	}
+
+	/**
+	 * Write all the visits, by id, to the given stream.
+	 * @return the number of visits written
+	 */
+	public long exportVisits(Format format, OutputStream out) {
+		return export(VISITS, format, out,
+				dsl -> dsl.select(VISITS.ID, VISITS.PET_ID, VISITS.VISIT_DATE, VISITS.DESCRIPTION)
+					.from(VISITS)
+					.orderBy(VISITS.ID));
+	}
+
+	private long export(Table<?> table, Format format, OutputStream out,
+			Function<DSLContext, ResultQuery<? extends Record>> query) {
+		long start = System.nanoTime();
+		long rows = 0;
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			String[] names = names(query.apply(this.shards.main()).fields());
+			RowWriter rowWriter = (format == Format.CSV) ? new CsvRowWriter(writer, names)
+					: new NdjsonRowWriter(this.objectMapper.getFactory()
+						.createGenerator(writer)
+						.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET), names);
+			for (int i = 0; i < this.shards.size(); i++) {
+				Long count = (i == 0)
+						? this.transactionTemplate.execute(status -> write(query.apply(this.shards.main()), rowWriter))
+						: this.shards.shard(i).transactionResult(trx -> write(query.apply(trx.dsl()), rowWriter));
+				rows += (count != null) ? count : 0;
+			}
+			rowWriter.flush();
+			writer.flush();
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		logger.info("Exported {} rows of {} as {} in {} ms", rows, table.getName(), format,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return rows;
+	}
+
+	/**
+	 * Write the rows of the given query, read with a cursor.
+	 * @return the number of rows written
+	 */
+	private long write(ResultQuery<? extends Record> query, RowWriter rowWriter) {
+		try (Cursor<? extends Record> cursor = query.fetchSize(this.fetchSize).fetchLazy()) {
+			long count = 0;
+			for (Record record : cursor) {
+				rowWriter.write(record);
+				count++;
+			}
+			return count;
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static String[] names(Field<?>[] fields) {
+		String[] names = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getName().toLowerCase(Locale.ROOT);
+		}
+		return names;
+	}
+
+	/**
+	 * Writes the records of an export, one line each.
+	 */
+	private interface RowWriter {
+
+		void write(Record record) throws IOException;
+
+		void flush() throws IOException;
+
+	}
+
+	/**
+	 * Writes a header line, then the values of each record separated by commas. Values
+	 * with commas, quotes or line breaks are quoted, and nulls left empty.
+	 */
+	private static class CsvRowWriter implements RowWriter {
+
+		private final Writer writer;
+
+		CsvRowWriter(Writer writer, String[] names) throws IOException {
+			this.writer = writer;
+			this.writer.write(String.join(",", names));
+			this.writer.write('\n');
+		}
+
+		@Override
+		public void write(Record record) throws IOException {
+			for (int i = 0; i < record.size(); i++) {
+				if (i > 0) {
+					this.writer.write(',');
+				}
+				Object value = record.get(i);
+				if (value != null) {
+					writeValue(value.toString());
+				}
+			}
+			this.writer.write('\n');
+		}
+
+		private void writeValue(String value) throws IOException {
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+					&& value.indexOf('\r') < 0) {
+				this.writer.write(value);
+				return;
+			}
+			this.writer.write('"');
+			this.writer.write(value.replace("\"", "\"\""));
+			this.writer.write('"');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.writer.flush();
+		}
+
+	}
+
+	/**
+	 * Writes each record as a JSON object on a line of its own, with the names of the
+	 * columns as fields.
+	 */
+	private static class NdjsonRowWriter implements RowWriter {
+
+		private final JsonGenerator generator;
+
+		private final String[] names;
+
+		NdjsonRowWriter(JsonGenerator generator, String[] names) {
+			// the lines separate the objects, rather than the default space
+			this.generator = generator.setRootValueSeparator(null);
+			this.names = names;
+		}
+
+		@Override
+		public void write(Record record) throws IOException {
+			this.generator.writeStartObject();
+			for (int i = 0; i < this.names.length; i++) {
+				this.generator.writeFieldName(this.names[i]);
+				this.generator.writeObject(record.get(i));
+			}
+			this.generator.writeEndObject();
+			this.generator.writeRaw('\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.generator.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.owner.OwnerImporter.Result;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Import of the owners and pets of a clinic from CSV files, see {@link OwnerImporter}.
+ * The files are streamed from the request body. Rows already imported are updated, unless
+ * <code>upsert=false</code>, which inserts new rows faster.
+ */
+@Controller
+class OwnerImportController {
+
+	private final OwnerImporter importer;
+
+	public OwnerImportController(OwnerImporter importer) {
+		this.importer = importer;
+	}
+
+	@PostMapping(path = "/api/owners:import", consumes = "text/csv")
+	public @ResponseBody Result importOwners(@RequestParam(defaultValue = "true") boolean upsert,
+			HttpServletRequest request) throws IOException {
+		return load(request, csv -> this.importer.importOwners(csv, upsert));
+	}
+
+	@PostMapping(path = "/api/pets:import", consumes = "text/csv")
+	public @ResponseBody Result importPets(@RequestParam(defaultValue = "true") boolean upsert,
+			HttpServletRequest request) throws IOException {
+		return load(request, csv -> this.importer.importPets(csv, upsert));
+	}
+
+	private static Result load(HttpServletRequest request, Function<Reader, Result> importer) throws IOException {
+		// an unknown charset is an IllegalArgumentException too
+		try (Reader csv = new InputStreamReader(request.getInputStream(), charset(request))) {
+			return importer.apply(csv);
+		}
+		catch (IllegalArgumentException ex) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+		}
+	}
+
+	private static Charset charset(HttpServletRequest request) {
+		return (request.getCharacterEncoding() != null) ? Charset.forName(request.getCharacterEncoding())
+				: StandardCharsets.UTF_8;
+	}
+
+}
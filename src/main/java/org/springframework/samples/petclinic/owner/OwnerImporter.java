@@ -0,0 +1,388 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.jooq.generated.Tables.OWNERS;
+import static org.jooq.generated.Tables.PETS;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.jooq.DSLContext;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.Field;
+import org.jooq.Loader;
+import org.jooq.LoaderError;
+import org.jooq.LoaderOptionsStep;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.tools.csv.CSVReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jooq.ExceptionTranslatorExecuteListener;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.samples.petclinic.system.ShardRouter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bulk import of owners and pets from CSV files, with the jOOQ {@link Loader}.
+ * <p>
+ * The files are read line by line while rows are loaded, so that only the rows of the
+ * current bulk statement are held in memory. They start with a header line naming their
+ * columns, in any order:
+ * </p>
+ * <ul>
+ * <li>owners: <code>id,first_name,last_name,address,city,telephone</code></li>
+ * <li>pets: <code>id,name,birth_date,type,owner_id</code>, where <code>type</code> is the
+ * name of a {@link PetType}</li>
+ * </ul>
+ * <p>
+ * Rows are inserted with their ids. When upserting, they update the existing rows with
+ * the same ids instead, so that an import can be run again: the Loader renders the upsert
+ * of the dialect (<code>ON CONFLICT</code>, <code>ON DUPLICATE KEY UPDATE</code> or
+ * <code>MERGE</code>), one row per statement. Otherwise, for a first import, rows are
+ * inserted by multi-row statements of the bulk size, a statement that fails rejecting all
+ * its rows. The statements are executed in JDBC batches of the batch size and committed
+ * every commit size batches. Rejected rows are reported and skipped. The owners and pets
+ * created afterwards get ids after the imported ones from the {@link IdAllocator}.
+ * </p>
+ * <p>
+ * The rows are loaded into the database of the application only, so imports are refused
+ * when the owners are partitioned across several shards by the {@link ShardRouter}.
+ * </p>
+ */
+@Component
+public class OwnerImporter {
+
+	private static final Logger logger = LoggerFactory.getLogger(OwnerImporter.class);
+
+	/**
+	 * Maximum number of errors reported by an import.
+	 */
+	static final int MAX_ERRORS = 100;
+
+	/**
+	 * The outcome of an import.
+	 *
+	 * @param processed the number of data lines read
+	 * @param stored the number of rows inserted or updated
+	 * @param ignored the number of rejected rows
+	 * @param errors the first errors, by line of the file
+	 * @param millis how long the import took
+	 */
+	public record Result(int processed, int stored, int ignored, List<String> errors, long millis) {
+
+		public double getRowsPerSecond() {
+			return (this.millis > 0) ? this.processed * 1000.0 / this.millis : this.processed;
+		}
+
+	}
+
+	private final ShardRouter shards;
+
+	private final DSLContext dsl;
+
+	private final PetTypes petTypes;
+
+	private final OwnerCache ownerCache;
+
+	private final OwnerRepository owners;
+
+	private final IdAllocator ids;
+
+	private final int bulkSize;
+
+	private final int batchSize;
+
+	private final int commitSize;
+
+	public OwnerImporter(ShardRouter shards, PetTypes petTypes, OwnerCache ownerCache, OwnerRepository owners,
+			IdAllocator ids, @Value("${petclinic.import.bulk-size:500}") int bulkSize,
+			@Value("${petclinic.import.batch-size:10}") int batchSize,
+			@Value("${petclinic.import.commit-size:10}") int commitSize) {
+		this.shards = shards;
+		this.dsl = shards.main();
+		this.petTypes = petTypes;
+		this.ownerCache = ownerCache;
+		this.owners = owners;
+		this.ids = ids;
+		this.bulkSize = bulkSize;
+		this.batchSize = batchSize;
+		this.commitSize = commitSize;
+	}
+
+	/**
+	 * Import the owners of the given CSV file.
+	 * @param upsert whether owners already imported are updated, rather than rejected
+	 */
+	public Result importOwners(Reader csv, boolean upsert) {
+		Result result = load(upsert, OWNERS, OWNERS.ID, OWNERS.VERSION, csv, new Field<?>[] { OWNERS.ID,
+				OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE }, header -> {
+					int[] columns = columns(header, "id", "first_name", "last_name", "address", "city", "telephone");
+					return line -> values(line, columns);
+				});
+		this.owners.reloadLastNames();
+		return result;
+	}
+
+	/**
+	 * Import the pets of the given CSV file. Pets of an unknown type are rejected.
+	 * @param upsert whether pets already imported are updated, rather than rejected
+	 */
+	public Result importPets(Reader csv, boolean upsert) {
+		return load(upsert, PETS, PETS.ID, PETS.VERSION, csv,
+				new Field<?>[] { PETS.ID, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID, PETS.OWNER_ID }, header -> {
+					int[] columns = columns(header, "id", "name", "birth_date", "type", "owner_id");
+					return line -> {
+						Object[] values = values(line, columns);
+						String type = (String) values[3];
+						values[3] = this.petTypes.findByName(type)
+							.orElseThrow(() -> new IllegalArgumentException("Unknown pet type: " + type))
+							.id();
+						return values;
+					};
+				});
+	}
+
+	/**
+	 * Load the lines of the CSV file, mapped to the values of the given fields, the id
+	 * first, by a mapper created from the header line. The mapper rejects a line with an
+	 * {@link IllegalArgumentException}.
+	 */
+	private Result load(boolean upsert, Table<?> table, TableField<?, Integer> id, Field<Integer> version,
+			Reader reader, Field<?>[] fields, Function<String[], Function<String[], Object[]>> mapper) {
+		if (this.shards.size() > 1) {
+			throw new IllegalStateException("Imports are not supported across " + this.shards.size() + " shards");
+		}
+		long start = System.nanoTime();
+		CSVReader csv = new CSVReader(reader);
+		Loader<?> loader;
+		Lines lines;
+		try {
+			String[] header = csv.readNext();
+			if (header == null) {
+				throw new IllegalArgumentException("Missing header line");
+			}
+			lines = new Lines(csv, mapper.apply(header));
+			LoaderOptionsStep<?> options = loaderDsl().loadInto(table);
+			// the Loader only upserts one row per statement
+			options = upsert ? options.onDuplicateKeyUpdate().bulkNone()
+					: options.onDuplicateKeyError().bulkAfter(this.bulkSize);
+			loader = options.onErrorIgnore()
+				.batchAfter(this.batchSize)
+				.commitAfter(this.commitSize)
+				.loadArrays(lines)
+				.fields(fields)
+				.execute();
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException("Cannot read the CSV file", ex);
+		}
+		BitSet failed = new BitSet();
+		for (LoaderError error : loader.errors()) {
+			failed.set(error.rowIndex());
+			lines.error(lines.lineOf(error.rowIndex()), error.exception().getMessage());
+		}
+		if (lines.count > 0) {
+			if (upsert) {
+				bumpVersions(table, id, version, lines, failed);
+			}
+			// new rows get ids after the imported ones
+			this.ids.reset(id);
+		}
+		this.ownerCache.clear();
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Result result = new Result(lines.processed, loader.stored(), lines.rejected + loader.ignored(),
+				List.copyOf(lines.errors), millis);
+		logger.info("Imported {} rows into {} in {} ms ({} rows/s), {} rejected", result.stored(), table.getName(),
+				millis, Math.round(result.getRowsPerSecond()), result.ignored());
+		return result;
+	}
+
+	/**
+	 * Increment the version of the rows the Loader upserted, so that the owners read
+	 * before are stale: the rows of the file it did not reject, by statements of the bulk
+	 * size. Inserted rows get a version too, which readers cannot have seen yet.
+	 */
+	private void bumpVersions(Table<?> table, TableField<?, Integer> id, Field<Integer> version, Lines lines,
+			BitSet failed) {
+		List<Integer> chunk = new ArrayList<>(this.bulkSize);
+		for (int i = 0; i < lines.count; i++) {
+			if (!failed.get(i)) {
+				chunk.add(lines.ids[i]);
+			}
+			if (chunk.size() == this.bulkSize || i == lines.count - 1) {
+				if (!chunk.isEmpty()) {
+					this.dsl.update(table).set(version, version.plus(1)).where(id.in(chunk)).execute();
+				}
+				chunk.clear();
+			}
+		}
+	}
+
+	/**
+	 * Return a context without the translation of the exceptions to Spring's, which the
+	 * Loader would not report as the errors of the rows.
+	 */
+	private DSLContext loaderDsl() {
+		return this.dsl.configuration()
+			.derive(Arrays.stream(this.dsl.configuration().executeListenerProviders())
+				.filter(provider -> !(provider.provide() instanceof ExceptionTranslatorExecuteListener))
+				.toArray(ExecuteListenerProvider[]::new))
+			.dsl();
+	}
+
+	private static int[] columns(String[] header, String... names) {
+		List<String> columns = Arrays.stream(header).map(String::trim).toList();
+		int[] indexes = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			indexes[i] = columns.indexOf(names[i]);
+			if (indexes[i] < 0) {
+				throw new IllegalArgumentException("Missing column " + names[i] + " in header " + columns);
+			}
+		}
+		return indexes;
+	}
+
+	private static Object[] values(String[] line, int[] columns) {
+		Object[] values = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			String value = (columns[i] < line.length) ? line[columns[i]].trim() : "";
+			values[i] = value.isEmpty() ? null : value;
+		}
+		return values;
+	}
+
+	/**
+	 * The rows to load, mapped from the data lines of the file as they are read. Lines
+	 * that are rejected by the mapper are skipped, and their line numbers kept to
+	 * translate the row indexes of the Loader to line numbers. The ids of the rows are
+	 * kept by row index.
+	 */
+	private static class Lines implements Iterator<Object[]> {
+
+		private final CSVReader csv;
+
+		private final Function<String[], Object[]> mapper;
+
+		private final List<Integer> skipped = new ArrayList<>();
+
+		private final List<String> errors = new ArrayList<>();
+
+		private int processed;
+
+		private int rejected;
+
+		private int line = 1;
+
+		private int[] ids = new int[64];
+
+		private int count;
+
+		private Object[] next;
+
+		Lines(CSVReader csv, Function<String[], Object[]> mapper) {
+			this.csv = csv;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null) {
+				String[] values = readNext();
+				if (values == null) {
+					break;
+				}
+				this.line++;
+				if (values.length == 1 && values[0].isBlank()) {
+					this.skipped.add(this.line);
+					continue;
+				}
+				this.processed++;
+				try {
+					Object[] row = this.mapper.apply(values);
+					int id = Integer.parseInt((String) row[0]);
+					if (this.count == this.ids.length) {
+						this.ids = Arrays.copyOf(this.ids, this.count * 2);
+					}
+					this.ids[this.count++] = id;
+					this.next = row;
+				}
+				catch (IllegalArgumentException ex) {
+					// also thrown for ids that are not numbers
+					this.skipped.add(this.line);
+					this.rejected++;
+					error(this.line, ex.getMessage());
+				}
+			}
+			return this.next != null;
+		}
+
+		private String[] readNext() {
+			try {
+				return this.csv.readNext();
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		@Override
+		public Object[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object[] current = this.next;
+			this.next = null;
+			return current;
+		}
+
+		void error(int line, String message) {
+			if (this.errors.size() < MAX_ERRORS) {
+				this.errors.add("line " + line + ": " + message);
+			}
+		}
+
+		/**
+		 * Return the line number of the row with the given index among the loaded rows.
+		 */
+		int lineOf(int rowIndex) {
+			int line = rowIndex + 2;
+			for (int skippedLine : this.skipped) {
+				if (skippedLine <= line) {
+					line++;
+				}
+				else {
+					break;
+				}
+			}
+			return line;
+		}
+
+	}
+
+}
@@ -15,26 +15,45 @@
  */
 package org.springframework.samples.petclinic.owner;
 
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.jooq.DSLContext;
+import org.jooq.Condition;
 import org.jooq.Field;
-import org.jooq.Record7;
+import org.jooq.Record1;
+import org.jooq.Record8;
+import org.jooq.generated.tables.Pets;
+import org.jooq.generated.tables.Visits;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.samples.petclinic.system.CountStrategy;
+import org.springframework.samples.petclinic.system.Cursor;
+import org.springframework.samples.petclinic.system.IdAllocator;
 import org.springframework.samples.petclinic.system.JooqHelper;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
+import org.springframework.samples.petclinic.system.ShardRouter;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import jakarta.annotation.Nonnull;
 
-import static java.util.Objects.requireNonNull;
 import static org.jooq.generated.tables.Owners.OWNERS;
 import static org.jooq.generated.tables.Pets.PETS;
 import static org.jooq.generated.tables.Types.TYPES;
 import static org.jooq.generated.tables.Visits.VISITS;
 import static org.jooq.impl.DSL.*;
+import static org.jooq.impl.SQLDataType.BIGINT;
 
 /**
  * Repository class for <code>Owner</code> domain objects All method names are compliant
@@ -57,49 +76,220 @@ public class OwnerRepository {
 		.convertFrom(result -> result.map(it -> new Pet(it.get(PETS.ID), it.get(PETS.NAME), it.get(PETS.BIRTH_DATE),
 				new PetType(it.get(PETS.TYPE_ID), it.get(TYPES.NAME)))));
 
-	public static final Field<List<Pet>> MULTISET_PETS_WITH_VISITS = multiset(select(PETS.ID, PETS.NAME,
-			PETS.BIRTH_DATE, PETS.TYPE_ID, TYPES.NAME,
-			multiset(select(VISITS.ID, VISITS.PET_ID, VISITS.VISIT_DATE, VISITS.DESCRIPTION).from(VISITS)
-				.where(VISITS.PET_ID.eq(PETS.ID)))
-				.convertFrom(r -> r
-					.map(v -> new Visit(v.get(VISITS.ID), v.get(VISITS.VISIT_DATE), v.get(VISITS.DESCRIPTION)))))
-		.from(PETS)
-		.join(TYPES)
-		.on(PETS.TYPE_ID.eq(TYPES.ID))
-		.where(OWNERS.ID.eq(PETS.OWNER_ID))).as("pets_with_visits")
+	/**
+	 * Number of visits loaded with each pet of an owner, the most recent first. The other
+	 * ones are read page by page with
+	 * {@link VisitRepository#findByPetId(int, int, Integer, int)}.
+	 */
+	public static final int RECENT_VISITS = 5;
+
+	private static final Visits NEWER = VISITS.as("newer");
+
+	/**
+	 * Whether the visit is one of the {@link #RECENT_VISITS} most recent ones of its pet,
+	 * i.e. whether it is not older than the last of them.
+	 * <p>
+	 * A <code>LIMIT</code> in the nested multiset would be simpler, but it is emulated
+	 * with a correlated derived table which H2 does not support. This condition is a seek
+	 * on the <code>(PET_ID, VISIT_DATE, ID)</code> index in every database.
+	 * </p>
+	 */
+	private static final Condition RECENT_VISIT = row(VISITS.VISIT_DATE, VISITS.ID)
+		.ge(select(NEWER.VISIT_DATE, NEWER.ID).from(NEWER)
+			.where(NEWER.PET_ID.eq(PETS.ID))
+			.orderBy(NEWER.VISIT_DATE.desc(), NEWER.ID.desc())
+			.offset(RECENT_VISITS - 1)
+			.limit(1))
+		.or(field(selectCount().from(NEWER).where(NEWER.PET_ID.eq(PETS.ID))).lt(RECENT_VISITS));
+
+	/**
+	 * The {@link #RECENT_VISITS} most recent visits of the current pet.
+	 */
+	static final Field<List<Visit>> MULTISET_RECENT_VISITS = multiset(
+			select(VISITS.ID, VISITS.PET_ID, VISITS.VISIT_DATE, VISITS.DESCRIPTION).from(VISITS)
+				.where(VISITS.PET_ID.eq(PETS.ID))
+				.and(RECENT_VISIT)
+				.orderBy(VISITS.VISIT_DATE.desc(), VISITS.ID.desc()))
+		.convertFrom(r -> r.map(v -> new Visit(v.get(VISITS.ID), v.get(VISITS.VISIT_DATE), v.get(VISITS.DESCRIPTION))));
+
+	/**
+	 * The number of visits of the current pet.
+	 */
+	static final Field<Integer> VISIT_COUNT = field(selectCount().from(VISITS).where(VISITS.PET_ID.eq(PETS.ID)));
+
+	public static final Field<List<Pet>> MULTISET_PETS_WITH_VISITS = multiset(
+			select(PETS.ID, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID, TYPES.NAME, MULTISET_RECENT_VISITS, VISIT_COUNT)
+				.from(PETS)
+				.join(TYPES)
+				.on(PETS.TYPE_ID.eq(TYPES.ID))
+				.where(OWNERS.ID.eq(PETS.OWNER_ID)))
+		.as("pets_with_visits")
 		.convertFrom(result -> result.map(it -> new Pet(it.get(PETS.ID), it.get(PETS.NAME), it.get(PETS.BIRTH_DATE),
-				new PetType(it.get(PETS.TYPE_ID), it.get(TYPES.NAME)), it.getValue(5, List.class))));
+				new PetType(it.get(PETS.TYPE_ID), it.get(TYPES.NAME)), it.getValue(5, List.class),
+				it.getValue(6, Integer.class))));
+
+	private static final Pets VERSIONED_PETS = PETS.as("versioned_pets");
+
+	private static final Visits VERSIONED_VISITS = VISITS.as("versioned_visits");
+
+	/**
+	 * Version of the current owner with its pets and visits: the version of the owner's
+	 * row plus, for each of its pets and visits, one more than the version of their row.
+	 * Inserts and updates always increase it, since rows are never deleted, and it is
+	 * computed with index lookups without reading the aggregate.
+	 */
+	static final Field<Long> AGGREGATE_VERSION = OWNERS.VERSION.cast(BIGINT)
+		.plus(field(select(coalesce(sum(VERSIONED_PETS.VERSION.plus(1)), inline(BigDecimal.ZERO))).from(VERSIONED_PETS)
+			.where(VERSIONED_PETS.OWNER_ID.eq(OWNERS.ID))))
+		.plus(field(
+				select(coalesce(sum(VERSIONED_VISITS.VERSION.plus(1)), inline(BigDecimal.ZERO))).from(VERSIONED_VISITS)
+					.join(VERSIONED_PETS)
+					.on(VERSIONED_VISITS.PET_ID.eq(VERSIONED_PETS.ID))
+					.where(VERSIONED_PETS.OWNER_ID.eq(OWNERS.ID))));
+
+	/**
+	 * The order of the owner search, by lower-cased last name then by id, which is the
+	 * order of {@link #sortName()} and is used to merge the pages of the shards.
+	 */
+	private static final Comparator<Owner> BY_LAST_NAME = Comparator
+		.comparing((Owner owner) -> owner.getLastName().toLowerCase(Locale.ROOT))
+		.thenComparing(Owner::getId);
+
+	private final ShardRouter shards;
 
-	private final DSLContext dsl;
+	private final OwnerCache cache;
 
-	public OwnerRepository(DSLContext dsl) {
-		this.dsl = dsl;
+	private final PendingVisits pendingVisits;
+
+	private final IdAllocator ids;
+
+	private final LastNameIndex lastNames = new LastNameIndex();
+
+	/**
+	 * Lets a single thread load the last name index, without pinning a virtual thread to
+	 * its carrier while the shards are queried as a monitor would.
+	 */
+	private final ReentrantLock lastNamesLock = new ReentrantLock();
+
+	public OwnerRepository(ShardRouter shards, OwnerCache cache, PendingVisits pendingVisits, IdAllocator ids) {
+		this.shards = shards;
+		this.cache = cache;
+		this.pendingVisits = pendingVisits;
+		this.ids = ids;
+	}
+
+	/**
+	 * Suggest last names starting with the given prefix, ignoring case, from an in-memory
+	 * index loaded at startup and kept current by {@link #saveOrUpdateDetails(Owner)}.
+	 * @param prefix the beginning of the last name
+	 * @param limit the maximum number of suggestions
+	 */
+	public List<LastNameIndex.Suggestion> suggestLastNames(String prefix, int limit) {
+		if (!lastNames.isLoaded()) {
+			loadLastNames();
+		}
+		return lastNames.suggest(prefix, limit);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void loadLastNames() {
+		lastNamesLock.lock();
+		try {
+			if (!lastNames.isLoaded()) {
+				reloadLastNames();
+			}
+		}
+		finally {
+			lastNamesLock.unlock();
+		}
+	}
+
+	/**
+	 * Load the last name index again, after owners have been written without
+	 * {@link #saveOrUpdateDetails(Owner)}.
+	 */
+	void reloadLastNames() {
+		lastNamesLock.lock();
+		try {
+			Field<Integer> count = count();
+			Map<String, Integer> counts = new HashMap<>();
+			shards
+				.scatter(dsl -> dsl.select(OWNERS.LAST_NAME, count)
+					.from(OWNERS)
+					.where(OWNERS.LAST_NAME.isNotNull())
+					.groupBy(OWNERS.LAST_NAME)
+					.fetchMap(OWNERS.LAST_NAME, count))
+				.forEach(shard -> shard.forEach((lastName, n) -> counts.merge(lastName, n, Integer::sum)));
+			lastNames.load(counts);
+		}
+		finally {
+			lastNamesLock.unlock();
+		}
 	}
 
 	/**
 	 * Retrieve {@link Owner}s from the data store by last name, returning all owners
-	 * whose last name <i>starts</i> with the given name.
+	 * whose last name <i>starts</i> with the given name, sorted by last name.
+	 * <p>
+	 * When the {@link Pageable} carries a cursor, the page is read with the seek method
+	 * from the <code>(sort_name, ID)</code> position of the cursor instead of an offset,
+	 * see {@link #sortName()}. The total is computed according to its
+	 * {@link CountStrategy}. With several shards, they are all searched in parallel and
+	 * their pages merged.
+	 * </p>
 	 * @param lastName Value to search for
 	 * @return a Collection of matching {@link Owner}s (or an empty Collection if none
 	 * found)
 	 */
+	@Transactional(readOnly = true)
 	public Page<Owner> findByLastNameWithPetsOnly(String lastName, Pageable pageable) {
-		var ref = new Object() {
-			Integer totalOwners = 0;
+		Field<String> sortName = sortName();
+		return JooqHelper.fetchPage(shards,
+				dsl -> dsl
+					.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY,
+							OWNERS.TELEPHONE, MULTISET_PETS, sortName)
+					.from(OWNERS)
+					.where(lastNameStartsWith(lastName)),
+				new Field[] { sortName, OWNERS.ID }, pageable, cache.count(lastName), OwnerRepository::toOwner,
+				BY_LAST_NAME, owner -> Cursor.of(owner.getLastName().toLowerCase(Locale.ROOT), owner.getId()));
+	}
 
+	/**
+	 * The last name as the owner search sorts and seeks it, in the order of
+	 * {@link #BY_LAST_NAME} on every shard. H2, HSQLDB and MySQL compare the column
+	 * ignoring case already, while PostgreSQL sorts the lower-cased name in the byte
+	 * order of the <code>"C"</code> collation, whatever the collation of the database.
+	 */
+	private Field<String> sortName() {
+		return switch (shards.main().family()) {
+			case POSTGRES -> lower(OWNERS.LAST_NAME).collate(collation(quotedName("C"))).as("sort_name");
+			default -> OWNERS.LAST_NAME.as("sort_name");
+		};
+	}
+
+	/**
+	 * Case-insensitive prefix condition on the last name, written per dialect so that it
+	 * is resolved as a range scan of an index instead of a <code>lower()</code> call on
+	 * every row:
+	 * <ul>
+	 * <li>H2 and HSQLDB declare the column <code>VARCHAR_IGNORECASE</code> and MySQL
+	 * compares it with its default case-insensitive collation, so a plain
+	 * <code>LIKE</code> uses the <code>owners (last_name)</code> index.</li>
+	 * <li>PostgreSQL compares the lower-cased prefix with the
+	 * <code>lower(last_name) text_pattern_ops</code> index.</li>
+	 * </ul>
+	 * Wildcards in the prefix are escaped, and an empty prefix matches every owner
+	 * without a condition.
+	 */
+	public Condition lastNameStartsWith(String lastName) {
+		if (lastName == null || lastName.isEmpty()) {
+			return noCondition();
+		}
+		String pattern = escape(lastName, '!') + "%";
+		return switch (shards.main().family()) {
+			case POSTGRES -> lower(OWNERS.LAST_NAME).like(pattern.toLowerCase(Locale.ROOT), '!');
+			default -> OWNERS.LAST_NAME.like(pattern, '!');
 		};
-		List<Owner> owners = JooqHelper
-			.paginate(dsl,
-					dsl.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY,
-							OWNERS.TELEPHONE, MULTISET_PETS)
-						.from(OWNERS)
-						.where(OWNERS.LAST_NAME.likeIgnoreCase(lastName + "%")),
-					new Field[] { OWNERS.ID }, pageable.pageSize(), pageable.getOffset())
-			.fetch(it -> {
-				ref.totalOwners = (Integer) it.get("total_rows");
-				return toOwner(it);
-			});
-		return new Page<>(owners, pageable, ref.totalOwners);
 	}
 
 	private static Owner toOwner(org.jooq.Record row) {
@@ -107,6 +297,53 @@ public class OwnerRepository {
 				row.get(OWNERS.ADDRESS), row.get(OWNERS.CITY), row.get(OWNERS.TELEPHONE), row.get(MULTISET_PETS));
 	}
 
+	/**
+	 * Retrieve the details of an {@link Owner}, without pets, for pages that only display
+	 * the owner's name.
+	 * @param id the id to search for
+	 */
+	public Optional<Owner> findById(@Nonnull Integer id) {
+		return shards.forOwner(id)
+			.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE,
+					OWNERS.VERSION)
+			.from(OWNERS)
+			.where(OWNERS.ID.eq(id))
+			.fetchOptional(row -> withVersion(new Owner(row.value1(), row.value2(), row.value3(), row.value4(),
+					row.value5(), row.value6(), List.of()), row.value7()));
+	}
+
+	/**
+	 * Retrieve an {@link Owner} with its pets but not their visits, e.g. to check that a
+	 * pet name is unique.
+	 * @param id the id to search for
+	 */
+	public Optional<Owner> findByIdWithPets(@Nonnull Integer id) {
+		return shards.forOwner(id)
+			.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE,
+					OWNERS.VERSION, MULTISET_PETS)
+			.from(OWNERS)
+			.where(OWNERS.ID.eq(id))
+			.fetchOptional(row -> withVersion(new Owner(row.value1(), row.value2(), row.value3(), row.value4(),
+					row.value5(), row.value6(), row.value8()), row.value7()));
+	}
+
+	/**
+	 * Retrieve the version of an {@link Owner} with its pets and visits, which changes
+	 * whenever any of them is inserted or updated, so that a page showing them can be
+	 * revalidated without reading them. Visits booked but not stored yet count as stored.
+	 * @param id the id of the owner
+	 * @return the version, or an empty {@link Optional} if there is no such owner
+	 * @see PendingVisits
+	 */
+	public Optional<Long> findAggregateVersion(@Nonnull Integer id) {
+		return shards.forOwner(id)
+			.select(AGGREGATE_VERSION)
+			.from(OWNERS)
+			.where(OWNERS.ID.eq(id))
+			.fetchOptional(Record1::value1)
+			.map(version -> version + pendingVisits.countByOwnerId(id));
+	}
+
 	/**
 	 * Retrieve an {@link Owner} from the data store by id.
 	 * <p>
@@ -119,35 +356,102 @@ public class OwnerRepository {
 	 * {@link Optional} if not found.
 	 * @throws IllegalArgumentException if the id is null (assuming null is not a valid
 	 * input for id)
+	 * @see OwnerCache
+	 * @see PendingVisits
 	 */
 	public Optional<Owner> findByIdWithPetsAndVisits(@Nonnull Integer id) {
-		return dsl
+		return cache.get(id, this::fetchByIdWithPetsAndVisits).map(pendingVisits::addTo);
+	}
+
+	private Optional<Owner> fetchByIdWithPetsAndVisits(Integer id) {
+		return shards.forOwner(id)
 			.select(OWNERS.ID, OWNERS.FIRST_NAME, OWNERS.LAST_NAME, OWNERS.ADDRESS, OWNERS.CITY, OWNERS.TELEPHONE,
-					MULTISET_PETS_WITH_VISITS)
+					OWNERS.VERSION, MULTISET_PETS_WITH_VISITS)
 			.from(OWNERS)
 			.where(OWNERS.ID.eq(id))
 			.fetchOptional(OwnerRepository::toOwner);
-
 	}
 
-	private static Owner toOwner(Record7<Integer, String, String, String, String, String, List<Pet>> row) {
-		return new Owner(row.get(OWNERS.ID), row.get(OWNERS.FIRST_NAME), row.get(OWNERS.LAST_NAME),
+	private static Owner toOwner(Record8<Integer, String, String, String, String, String, Integer, List<Pet>> row) {
+		return withVersion(new Owner(row.get(OWNERS.ID), row.get(OWNERS.FIRST_NAME), row.get(OWNERS.LAST_NAME),
 				row.get(OWNERS.ADDRESS), row.get(OWNERS.CITY), row.get(OWNERS.TELEPHONE),
-				row.get(MULTISET_PETS_WITH_VISITS));
+				row.get(MULTISET_PETS_WITH_VISITS)), row.get(OWNERS.VERSION));
+	}
+
+	private static Owner withVersion(Owner owner, int version) {
+		owner.setVersion(version);
+		return owner;
 	}
 
+	/**
+	 * Save a new {@link Owner} with an id from the {@link IdAllocator}, or update an
+	 * existing one if its row still has the {@link Owner#getVersion() version} it was
+	 * read with, incrementing it. The statements run in a transaction of the shard of the
+	 * owner, see {@link ShardRouter#inTransaction(int, java.util.function.Consumer)}.
+	 * @return the id of the owner
+	 * @throws OptimisticLockingFailureException if the owner was changed or deleted since
+	 * it was read
+	 */
 	public Integer saveOrUpdateDetails(Owner owner) {
+		String lastName = owner.getLastName();
 		if (owner.isNew()) {
-			return requireNonNull(
-					dsl.insertInto(OWNERS).set(mapOwnerToRecord(owner)).returningResult(OWNERS.ID).fetchOne())
-				.getValue(OWNERS.ID);
+			int id = ids.nextId(OWNERS.ID);
+			shards.inTransaction(shards.shardOf(id),
+					dsl -> dsl.insertInto(OWNERS).set(OWNERS.ID, id).set(mapOwnerToRecord(owner)).execute());
+			cache.evict(id);
+			cache.clearCounts();
+			afterCommit(() -> lastNames.add(lastName));
+			return id;
 		}
 		else {
-			dsl.update(OWNERS).set(mapOwnerToRecord(owner)).where(OWNERS.ID.eq(owner.getId())).execute();
+			String previous = shards.inTransactionResult(shards.shardOf(owner.getId()), dsl -> {
+				String name = lastNames.isLoaded() ? dsl.select(OWNERS.LAST_NAME)
+					.from(OWNERS)
+					.where(OWNERS.ID.eq(owner.getId()))
+					.fetchOne(OWNERS.LAST_NAME) : null;
+				int updated = dsl.update(OWNERS)
+					.set(mapOwnerToRecord(owner))
+					.set(OWNERS.VERSION, OWNERS.VERSION.plus(1))
+					.where(OWNERS.ID.eq(owner.getId()))
+					.and(OWNERS.VERSION.eq(owner.getVersion()))
+					.execute();
+				if (updated == 0) {
+					throw new OptimisticLockingFailureException(
+							"Owner " + owner.getId() + " was changed or deleted since it was read");
+				}
+				return name;
+			});
+			owner.setVersion(owner.getVersion() + 1);
+			cache.evict(owner.getId());
+			if (!Objects.equals(previous, lastName)) {
+				cache.clearCounts();
+				afterCommit(() -> {
+					lastNames.remove(previous);
+					lastNames.add(lastName);
+				});
+			}
 			return owner.getId();
 		}
 	}
 
+	/**
+	 * Run the given action once the current transaction, if any, is committed, so that
+	 * rolled back changes never reach the in-memory index.
+	 */
+	private static void afterCommit(Runnable action) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					action.run();
+				}
+			});
+		}
+		else {
+			action.run();
+		}
+	}
+
 	private Map<Field<?>, Object> mapOwnerToRecord(Owner owner) {
 		return Map.of(OWNERS.FIRST_NAME, owner.getFirstName(), OWNERS.LAST_NAME, owner.getLastName(), OWNERS.ADDRESS,
 				owner.getAddress(), OWNERS.CITY, owner.getCity(), OWNERS.TELEPHONE, owner.getTelephone());
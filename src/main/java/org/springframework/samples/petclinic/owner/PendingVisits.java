@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * The visits booked with {@link VisitBookingQueue} that are not stored yet, so that the
+ * repositories reading visits return them too.
+ * <p>
+ * Pending visits are listed before the stored visits of their pet, the most recent
+ * booking first, since they are not stored yet. Each of them counts in the
+ * {@link OwnerRepository#findAggregateVersion(Integer) version of its owner} as the visit
+ * it is stored as, so that the owner page changes when a visit is booked but not when it
+ * is stored.
+ * </p>
+ * <p>
+ * A visit is only forgotten once the transaction storing it has committed, so readers can
+ * find it both stored and pending for a moment: the pending visits are merged with the
+ * stored ones by id, see {@link #findByPetId(int, Collection)}.
+ * </p>
+ */
+@Component
+public class PendingVisits {
+
+	/**
+	 * A visit booked for a pet of the given owner, in the order of the bookings.
+	 */
+	record Pending(long seq, int ownerId, Visit visit) {
+	}
+
+	private final ConcurrentSkipListMap<Long, Pending> bySeq = new ConcurrentSkipListMap<>();
+
+	private final Map<Integer, List<Pending>> byPet = new ConcurrentHashMap<>();
+
+	private final Map<Integer, Integer> countByOwner = new ConcurrentHashMap<>();
+
+	void add(Pending pending) {
+		this.byPet.compute(pending.visit().petId(), (petId, list) -> {
+			List<Pending> added = (list != null) ? new ArrayList<>(list) : new ArrayList<>(1);
+			added.add(pending);
+			return List.copyOf(added);
+		});
+		this.countByOwner.merge(pending.ownerId(), 1, Integer::sum);
+		this.bySeq.put(pending.seq(), pending);
+	}
+
+	/**
+	 * Forget the given visits, once they are stored.
+	 */
+	void remove(Collection<Pending> stored) {
+		for (Pending pending : stored) {
+			if (this.bySeq.remove(pending.seq()) == null) {
+				continue;
+			}
+			this.byPet.computeIfPresent(pending.visit().petId(), (petId, list) -> {
+				List<Pending> remaining = list.stream().filter(it -> it.seq() != pending.seq()).toList();
+				return remaining.isEmpty() ? null : remaining;
+			});
+			this.countByOwner.computeIfPresent(pending.ownerId(), (ownerId, count) -> (count > 1) ? count - 1 : null);
+		}
+	}
+
+	/**
+	 * Return the oldest pending visits, in the order they were booked.
+	 * @param limit the maximum number of visits
+	 */
+	List<Pending> oldest(int limit) {
+		return this.bySeq.values().stream().limit(limit).toList();
+	}
+
+	/**
+	 * Return the number of pending visits.
+	 */
+	public int size() {
+		return this.bySeq.size();
+	}
+
+	/**
+	 * Return the pending visits of the given pet, the most recent booking first.
+	 */
+	public List<Visit> findByPetId(int petId) {
+		List<Pending> pending = this.byPet.get(petId);
+		if (pending == null) {
+			return List.of();
+		}
+		return pending.stream().sorted(Comparator.comparingLong(Pending::seq).reversed()).map(Pending::visit).toList();
+	}
+
+	/**
+	 * Return the pending visits of the given pet that are not among the given stored
+	 * visits, the most recent booking first.
+	 */
+	public List<Visit> findByPetId(int petId, Collection<Visit> stored) {
+		List<Visit> pending = findByPetId(petId);
+		if (pending.isEmpty() || stored.isEmpty()) {
+			return pending;
+		}
+		Set<Integer> storedIds = stored.stream().map(Visit::id).collect(Collectors.toSet());
+		return pending.stream().filter(visit -> !storedIds.contains(visit.id())).toList();
+	}
+
+	/**
+	 * Return the number of pending visits of the pets of the given owner.
+	 */
+	public int countByOwnerId(int ownerId) {
+		return this.countByOwner.getOrDefault(ownerId, 0);
+	}
+
+	/**
+	 * Add the pending visits of its pets to the given owner.
+	 */
+	Owner addTo(Owner owner) {
+		if (countByOwnerId(owner.getId()) > 0) {
+			owner.getPets().forEach(this::addTo);
+		}
+		return owner;
+	}
+
+	/**
+	 * Add its pending visits to the given pet.
+	 */
+	Pet addTo(Pet pet) {
+		pet.addPendingVisits(findByPetId(pet.getId(), pet.getVisits()));
+		return pet;
+	}
+
+}
@@ -16,8 +16,10 @@
 package org.springframework.samples.petclinic.owner;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.springframework.format.annotation.DateTimeFormat;
@@ -40,6 +42,10 @@ public class Pet extends NamedEntity {
 
 	private final Set<Visit> visits = new LinkedHashSet<>();
 
+	private int visitCount;
+
+	private int version;
+
 	public Pet() {
 	}
 
@@ -50,8 +56,17 @@ public class Pet extends NamedEntity {
 	}
 
 	public Pet(Integer id, String name, LocalDate birthDate, PetType type, Collection<Visit> visits) {
+		this(id, name, birthDate, type, visits, visits.size());
+	}
+
+	/**
+	 * Create a pet with only some of its visits, typically the most recent ones.
+	 * @param visitCount the total number of visits of the pet
+	 */
+	public Pet(Integer id, String name, LocalDate birthDate, PetType type, Collection<Visit> visits, int visitCount) {
 		this(id, name, birthDate, type);
 		this.visits.addAll(visits);
+		this.visitCount = visitCount;
 	}
 
 	public void setBirthDate(LocalDate birthDate) {
@@ -70,8 +85,43 @@ public class Pet extends NamedEntity {
 		this.type = type;
 	}
 
+	/**
+	 * Return the version of the pet's row when it was read, which an update expects to be
+	 * unchanged in the data store.
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	public Collection<Visit> getVisits() {
 		return this.visits;
 	}
 
+	/**
+	 * Return the total number of visits of this pet, which may be more than the
+	 * {@link #getVisits() visits} loaded with it.
+	 */
+	public int getVisitCount() {
+		return Math.max(this.visitCount, this.visits.size());
+	}
+
+	/**
+	 * Add visits that are booked but not stored yet before the visits of this pet.
+	 * @see PendingVisits
+	 */
+	void addPendingVisits(List<Visit> pending) {
+		if (pending.isEmpty()) {
+			return;
+		}
+		List<Visit> stored = new ArrayList<>(this.visits);
+		this.visitCount = getVisitCount() + pending.size();
+		this.visits.clear();
+		this.visits.addAll(pending);
+		this.visits.addAll(stored);
+	}
+
 }
@@ -19,6 +19,7 @@ import java.time.LocalDate;
 import java.util.Collection;
 import java.util.Optional;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.util.StringUtils;
@@ -50,19 +51,22 @@ class PetController {
 
 	private final PetRepository pets;
 
-	public PetController(OwnerRepository owners, PetRepository pets) {
+	private final PetTypes petTypes;
+
+	public PetController(OwnerRepository owners, PetRepository pets, PetTypes petTypes) {
 		this.owners = owners;
 		this.pets = pets;
+		this.petTypes = petTypes;
 	}
 
 	@ModelAttribute("types")
 	public Collection<PetType> populatePetTypes() {
-		return this.pets.findPetTypes();
+		return this.petTypes.findAll();
 	}
 
 	@ModelAttribute("owner")
 	public Owner findOwner(@PathVariable("ownerId") int ownerId) {
-		Optional<Owner> optionalOwner = this.owners.findByIdWithPetsAndVisits(ownerId);
+		Optional<Owner> optionalOwner = this.owners.findByIdWithPets(ownerId);
 		Owner owner = optionalOwner.orElseThrow(() -> new IllegalArgumentException(
 				"Owner not found with id: " + ownerId + ". Please ensure the ID is correct "));
 		return owner;
@@ -76,7 +80,7 @@ class PetController {
 			return new Pet();
 		}
 
-		Optional<Pet> optionalPet = this.pets.findByIdWithoutVisits(petId);
+		Optional<Pet> optionalPet = this.pets.findByIdWithoutVisits(ownerId, petId);
 		return optionalPet.orElseThrow(() -> new IllegalArgumentException(
 				"Pet not found with id: " + petId + ". Please ensure the ID is correct "));
 	}
@@ -148,7 +152,14 @@ class PetController {
 			return VIEWS_PETS_CREATE_OR_UPDATE_FORM;
 		}
 
-		pets.updateDetails(pet);
+		try {
+			pets.updateDetails(owner.getId(), pet);
+		}
+		catch (OptimisticLockingFailureException ex) {
+			redirectAttributes.addFlashAttribute("error",
+					"The pet was changed by someone else in the meantime. Please review and edit again.");
+			return "redirect:/owners/{ownerId}";
+		}
 		redirectAttributes.addFlashAttribute("message", "Pet details has been edited");
 		return "redirect:/owners/{ownerId}";
 	}
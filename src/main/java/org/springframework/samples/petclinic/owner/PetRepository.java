@@ -1,6 +1,9 @@
 package org.springframework.samples.petclinic.owner;
 
-import org.jooq.DSLContext;
+import org.jooq.Records;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.samples.petclinic.system.ShardRouter;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,47 +16,115 @@ import static org.jooq.generated.tables.Types.TYPES;
 @Repository
 public class PetRepository {
 
-	private final DSLContext dsl;
+	private final ShardRouter shards;
 
-	public PetRepository(DSLContext dsl) {
-		this.dsl = dsl;
+	private final OwnerCache ownerCache;
+
+	private final PendingVisits pendingVisits;
+
+	private final IdAllocator ids;
+
+	public PetRepository(ShardRouter shards, OwnerCache ownerCache, PendingVisits pendingVisits, IdAllocator ids) {
+		this.shards = shards;
+		this.ownerCache = ownerCache;
+		this.pendingVisits = pendingVisits;
+		this.ids = ids;
 	}
 
 	/**
 	 * Retrieve all {@link PetType}s from the data store.
 	 * @return a Collection of {@link PetType}s.
+	 * @see PetTypes
 	 */
 	@Transactional(readOnly = true)
 	public List<PetType> findPetTypes() {
-		return dsl.selectFrom(TYPES).orderBy(TYPES.NAME).fetchInto(PetType.class);
+		return shards.main()
+			.select(TYPES.ID, TYPES.NAME)
+			.from(TYPES)
+			.orderBy(TYPES.NAME)
+			.fetch(Records.mapping(PetType::new));
 	}
 
+	/**
+	 * Save a new pet of the given owner, with an id from the {@link IdAllocator}, in a
+	 * transaction of the shard of the owner.
+	 */
 	public void saveDetails(Integer ownerId, Pet pet) {
-		dsl.insertInto(PETS)
-			.set(PETS.NAME, pet.getName())
-			.set(PETS.TYPE_ID, pet.getType().id())
-			.set(PETS.BIRTH_DATE, pet.getBirthDate())
-			.set(PETS.OWNER_ID, ownerId)
-			.execute();
+		int id = ids.nextId(PETS.ID);
+		shards.inTransaction(shards.shardOf(ownerId),
+				dsl -> dsl.insertInto(PETS)
+					.set(PETS.ID, id)
+					.set(PETS.NAME, pet.getName())
+					.set(PETS.TYPE_ID, pet.getType().id())
+					.set(PETS.BIRTH_DATE, pet.getBirthDate())
+					.set(PETS.OWNER_ID, ownerId)
+					.execute());
+		ownerCache.evict(ownerId);
+	}
+
+	/**
+	 * Update a pet of the given owner if its row still has the {@link Pet#getVersion()
+	 * version} it was read with, incrementing it, in a transaction of the shard of the
+	 * owner.
+	 * @throws OptimisticLockingFailureException if the pet was changed or deleted since
+	 * it was read
+	 */
+	public void updateDetails(Integer ownerId, Pet pet) {
+		int updated = shards.inTransactionResult(shards.shardOf(ownerId),
+				dsl -> dsl.update(PETS)
+					.set(PETS.NAME, pet.getName())
+					.set(PETS.TYPE_ID, pet.getType().id())
+					.set(PETS.BIRTH_DATE, pet.getBirthDate())
+					.set(PETS.VERSION, PETS.VERSION.plus(1))
+					.where(PETS.ID.eq(pet.getId()))
+					.and(PETS.OWNER_ID.eq(ownerId))
+					.and(PETS.VERSION.eq(pet.getVersion()))
+					.execute());
+		if (updated == 0) {
+			throw new OptimisticLockingFailureException(
+					"Pet " + pet.getId() + " was changed or deleted since it was read");
+		}
+		pet.setVersion(pet.getVersion() + 1);
+		ownerCache.evict(ownerId);
 	}
 
-	public void updateDetails(Pet pet) {
-		dsl.update(PETS)
-			.set(PETS.NAME, pet.getName())
-			.set(PETS.TYPE_ID, pet.getType().id())
-			.set(PETS.BIRTH_DATE, pet.getBirthDate())
-			.where(PETS.ID.eq(pet.getId()))
-			.execute();
+	@Transactional(readOnly = true)
+	public Optional<Pet> findByIdWithoutVisits(Integer ownerId, Integer petId) {
+		return shards.forOwner(ownerId)
+			.select()
+			.from(PETS)
+			.join(PETS.types_())
+			.where(PETS.ID.eq(petId))
+			.and(PETS.OWNER_ID.eq(ownerId))
+			.fetchOptional(PetRepository::toPet);
 	}
 
+	/**
+	 * Retrieve a pet of the given owner with its most recent visits, after the visits
+	 * booked but not stored yet.
+	 * @see OwnerRepository#RECENT_VISITS
+	 * @see PendingVisits
+	 */
 	@Transactional(readOnly = true)
-	public Optional<Pet> findByIdWithoutVisits(Integer petId) {
-		return dsl.select().from(PETS).join(PETS.types_()).where(PETS.ID.eq(petId)).fetchOptional(PetRepository::toPet);
+	public Optional<Pet> findByIdWithRecentVisits(Integer ownerId, Integer petId) {
+		return shards.forOwner(ownerId)
+			.select(PETS.ID, PETS.NAME, PETS.BIRTH_DATE, PETS.TYPE_ID, TYPES.NAME,
+					OwnerRepository.MULTISET_RECENT_VISITS, OwnerRepository.VISIT_COUNT)
+			.from(PETS)
+			.join(TYPES)
+			.on(PETS.TYPE_ID.eq(TYPES.ID))
+			.where(PETS.ID.eq(petId))
+			.and(PETS.OWNER_ID.eq(ownerId))
+			.fetchOptional(row -> new Pet(row.value1(), row.value2(), row.value3(),
+					new PetType(row.value4(), row.value5()), row.value6(), row.value7()))
+			.map(pendingVisits::addTo);
 	}
 
 	private static Pet toPet(org.jooq.Record row) {
-		return new Pet(row.get(PETS.ID), row.get(PETS.NAME), row.get(PETS.BIRTH_DATE),
+		Pet pet = new Pet(row.get(PETS.ID), row.get(PETS.NAME), row.get(PETS.BIRTH_DATE),
 				new PetType(row.get(PETS.TYPE_ID), row.get(TYPES.NAME)));
+		pet.setVersion(row.get(PETS.VERSION));
+		return pet;
 	}
 
 }
@@ -19,7 +19,6 @@ import org.springframework.format.Formatter;
 import org.springframework.stereotype.Component;
 
 import java.text.ParseException;
-import java.util.Collection;
 import java.util.Locale;
 
 /**
@@ -35,10 +34,10 @@ import java.util.Locale;
 @Component
 public class PetTypeFormatter implements Formatter<PetType> {
 
-	private final PetRepository pets;
+	private final PetTypes petTypes;
 
-	public PetTypeFormatter(PetRepository pets) {
-		this.pets = pets;
+	public PetTypeFormatter(PetTypes petTypes) {
+		this.petTypes = petTypes;
 	}
 
 	@Override
@@ -48,13 +47,7 @@ public class PetTypeFormatter implements Formatter<PetType> {
 
 	@Override
 	public PetType parse(String text, Locale locale) throws ParseException {
-		Collection<PetType> findPetTypes = this.pets.findPetTypes();
-		for (PetType type : findPetTypes) {
-			if (type.name().equals(text)) {
-				return type;
-			}
-		}
-		throw new ParseException("type not found: " + text, 0);
+		return this.petTypes.findByName(text).orElseThrow(() -> new ParseException("type not found: " + text, 0));
 	}
 
 }
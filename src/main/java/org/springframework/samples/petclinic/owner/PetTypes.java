@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of the {@link PetType}s, the reference data read by every pet form: to list
+ * the types to choose from, and to bind the chosen one by name in the
+ * {@link PetTypeFormatter}.
+ * <p>
+ * The types are loaded once into an immutable snapshot, a list sorted by name and a map
+ * by name, which is read without locking. The snapshot is loaded again on the first
+ * access after the refresh interval, or after {@link #invalidate()}.
+ * </p>
+ */
+@Component
+public class PetTypes {
+
+	private record Snapshot(List<PetType> sorted, Map<String, PetType> byName, long loadedAt) {
+	}
+
+	private final PetRepository pets;
+
+	private final long refreshInterval;
+
+	private final LongSupplier nanoTime;
+
+	/**
+	 * Serializes the reloads. A virtual thread blocked on a monitor would pin its carrier
+	 * thread while the types are read.
+	 */
+	private final ReentrantLock reloadLock = new ReentrantLock();
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @param refreshInterval how long the types are kept before being loaded again, or
+	 * zero to keep them until {@link #invalidate()}
+	 */
+	@Autowired
+	public PetTypes(PetRepository pets,
+			@Value("${petclinic.pet-types.refresh-interval:10m}") Duration refreshInterval) {
+		this(pets, refreshInterval, System::nanoTime);
+	}
+
+	PetTypes(PetRepository pets, Duration refreshInterval, LongSupplier nanoTime) {
+		this.pets = pets;
+		this.refreshInterval = refreshInterval.toNanos();
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * Return all the pet types, sorted by name.
+	 */
+	public List<PetType> findAll() {
+		return current().sorted();
+	}
+
+	/**
+	 * Return the pet type with the given name.
+	 */
+	public Optional<PetType> findByName(String name) {
+		return Optional.ofNullable(current().byName().get(name));
+	}
+
+	/**
+	 * Discard the loaded types, e.g. after changing them in the data store, so that they
+	 * are loaded again on the next access.
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	private Snapshot current() {
+		Snapshot s = snapshot;
+		if (s == null || (refreshInterval > 0 && nanoTime.getAsLong() - s.loadedAt() >= refreshInterval)) {
+			s = reload(s);
+		}
+		return s;
+	}
+
+	private Snapshot reload(Snapshot outdated) {
+		reloadLock.lock();
+		try {
+			Snapshot s = snapshot;
+			// unless another thread already loaded the types again
+			if (s == outdated) {
+				List<PetType> sorted = List.copyOf(pets.findPetTypes());
+				s = new Snapshot(sorted,
+						sorted.stream().collect(Collectors.toUnmodifiableMap(PetType::name, Function.identity())),
+						nanoTime.getAsLong());
+				snapshot = s;
+			}
+			return s;
+		}
+		finally {
+			reloadLock.unlock();
+		}
+	}
+
+}
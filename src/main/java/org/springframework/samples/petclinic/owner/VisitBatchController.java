@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.owner.VisitRepository.BatchItem;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+/**
+ * Bulk creation of visits, for the systems synchronizing the visits of the front desks.
+ */
+@Controller
+class VisitBatchController {
+
+	private final VisitRepository visits;
+
+	private final Validator validator;
+
+	private final int maxSize;
+
+	/**
+	 * @param maxSize the most visits a request may create
+	 */
+	public VisitBatchController(VisitRepository visits, Validator validator,
+			@Value("${petclinic.visits.batch.max-size:1000}") int maxSize) {
+		this.visits = visits;
+		this.validator = validator;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Save the given visits, ignoring their ids. The invalid visits, including the
+	 * <code>null</code> ones, and the visits of unknown pets are rejected while the
+	 * others are saved.
+	 * @return the generated id or the error of each visit, in the order of the request
+	 * @throws ResponseStatusException with a 413 status if there are more visits than the
+	 * maximum size of a batch
+	 */
+	@PostMapping("/api/visits:batch")
+	public @ResponseBody List<BatchItem> saveVisits(@RequestBody List<Visit> visits) {
+		if (visits.size() > this.maxSize) {
+			throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+					"At most " + this.maxSize + " visits per batch, got " + visits.size());
+		}
+		BatchItem[] items = new BatchItem[visits.size()];
+		List<Visit> valid = new ArrayList<>(visits.size());
+		List<Integer> indexes = new ArrayList<>(visits.size());
+		for (int i = 0; i < items.length; i++) {
+			Visit visit = visits.get(i);
+			if (visit == null) {
+				items[i] = BatchItem.rejected(i, "must not be null");
+				continue;
+			}
+			Set<ConstraintViolation<Visit>> violations = this.validator.validate(visit);
+			if (violations.isEmpty()) {
+				valid.add(new Visit(visit.date(), visit.description(), visit.petId()));
+				indexes.add(i);
+			}
+			else {
+				items[i] = BatchItem.rejected(i,
+						violations.stream()
+							.map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+							.sorted()
+							.collect(Collectors.joining(", ")));
+			}
+		}
+		for (BatchItem item : this.visits.saveAll(valid)) {
+			int index = indexes.get(item.index());
+			items[index] = new BatchItem(index, item.id(), item.error());
+		}
+		return List.of(items);
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.jooq.generated.Tables.VISITS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.samples.petclinic.owner.PendingVisits.Pending;
+import org.springframework.samples.petclinic.owner.VisitJournal.Entry;
+import org.springframework.samples.petclinic.owner.VisitRepository.BatchItem;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Booking of visits, either stored right away or, in write-behind mode, stored in batches
+ * in the background so that bookings do not wait for the database.
+ * <p>
+ * In write-behind mode, a booked visit gets its id from the {@link IdAllocator}, is
+ * written with it to a local {@link VisitJournal} and forced to the disk before the
+ * booking returns, and is then one of the {@link PendingVisits} that the repositories
+ * read along with the stored ones. A single writer thread stores the pending visits every
+ * interval, in batches of up to the batch size with
+ * {@link VisitRepository#saveAll(List)}, and records a checkpoint in the journal after
+ * each batch. The journal is emptied whenever no visit is pending.
+ * </p>
+ * <p>
+ * On startup, the visits booked after the last checkpoint of the journal are pending
+ * again, and stored once the application is ready. The visits of a batch committed but
+ * not checkpointed before a crash are stored already, so their inserts are ignored.
+ * Visits that cannot be stored, such as the visits of pets that no longer exist, are
+ * moved to the rejected journal next to the journal, with a <code>.rejected</code>
+ * suffix, while the others are retried until the database is available.
+ * </p>
+ * <p>
+ * The number of pending visits is published as the <code>petclinic.visits.pending</code>
+ * gauge, and the number of rejected ones as the <code>petclinic.visits.rejected</code>
+ * counter.
+ * </p>
+ */
+@Component
+public class VisitBookingQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(VisitBookingQueue.class);
+
+	private final VisitRepository visits;
+
+	private final PendingVisits pending;
+
+	private final VisitJournal journal;
+
+	private final VisitJournal rejected;
+
+	private final IdAllocator ids;
+
+	private final Counter rejectedCount;
+
+	private final int batchSize;
+
+	private final Duration interval;
+
+	/**
+	 * Orders the writes to the journal with the pending visits.
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/**
+	 * Lets a single thread store the pending visits, without pinning a virtual thread to
+	 * its carrier while waiting for the database as a monitor would.
+	 */
+	private final ReentrantLock drainLock = new ReentrantLock();
+
+	private long seq;
+
+	private ScheduledExecutorService writer;
+
+	/**
+	 * @param writeBehind whether visits are stored in the background
+	 * @param journal the path of the journal of the visits booked in write-behind mode
+	 * @param batchSize the maximum number of visits stored by one transaction
+	 * @param interval how long the writer waits between two runs
+	 */
+	public VisitBookingQueue(VisitRepository visits, PendingVisits pending, IdAllocator ids, ObjectMapper objectMapper,
+			MeterRegistry meterRegistry, @Value("${petclinic.visits.write-behind.enabled:false}") boolean writeBehind,
+			@Value("${petclinic.visits.write-behind.journal:data/visits.journal}") Path journal,
+			@Value("${petclinic.visits.write-behind.batch-size:500}") int batchSize,
+			@Value("${petclinic.visits.write-behind.interval:200ms}") Duration interval) throws IOException {
+		this.visits = visits;
+		this.pending = pending;
+		this.journal = writeBehind ? new VisitJournal(journal, objectMapper) : null;
+		this.rejected = writeBehind
+				? new VisitJournal(journal.resolveSibling(journal.getFileName() + ".rejected"), objectMapper) : null;
+		this.ids = ids;
+		this.batchSize = batchSize;
+		this.interval = interval;
+		if (this.journal != null) {
+			replay(this.journal.read());
+			// positioned after the visits rejected before
+			this.rejected.read();
+		}
+		Gauge.builder("petclinic.visits.pending", pending, PendingVisits::size)
+			.description("Visits booked but not stored yet")
+			.register(meterRegistry);
+		this.rejectedCount = Counter.builder("petclinic.visits.rejected")
+			.description("Visits booked that could not be stored, moved to the rejected journal")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Make the visits of the journal that are not stored pending again.
+	 */
+	private void replay(List<Entry> entries) {
+		long stored = entries.stream().filter(Entry::checkpoint).mapToLong(Entry::seq).max().orElse(0);
+		int replayed = 0;
+		for (Entry entry : entries) {
+			this.seq = Math.max(this.seq, entry.seq());
+			if (!entry.checkpoint() && entry.seq() > stored) {
+				this.pending.add(new Pending(entry.seq(), entry.ownerId(), entry.visit()));
+				replayed++;
+			}
+		}
+		if (replayed > 0) {
+			logger.info("Replayed {} visits booked but not stored from the journal", replayed);
+		}
+	}
+
+	/**
+	 * Book the given visit of a pet of the given owner. In write-behind mode, the visit
+	 * is stored later, but returned by the repositories right away.
+	 */
+	public void book(int ownerId, Visit visit) {
+		if (this.journal == null) {
+			this.visits.saveDetails(visit);
+			return;
+		}
+		Visit withId = new Visit(this.ids.nextId(VISITS.ID), visit.date(), visit.description(), visit.petId());
+		try {
+			long offset;
+			this.writeLock.lock();
+			try {
+				Pending booked = new Pending(++this.seq, ownerId, withId);
+				offset = this.journal.write(Entry.booked(booked.seq(), ownerId, withId));
+				this.pending.add(booked);
+			}
+			finally {
+				this.writeLock.unlock();
+			}
+			this.journal.sync(offset);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException("Cannot journal the visit", ex);
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void start() {
+		if (this.journal != null && this.writer == null) {
+			this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "visit-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.writer.scheduleWithFixedDelay(this::drainQuietly, 0, this.interval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void drainQuietly() {
+		try {
+			drain();
+		}
+		catch (RuntimeException | IOException ex) {
+			logger.warn("Cannot store the pending visits, retrying in {}", this.interval, ex);
+		}
+	}
+
+	/**
+	 * Store the pending visits, oldest first.
+	 * @return the number of visits stored
+	 */
+	int drain() throws IOException {
+		this.drainLock.lock();
+		try {
+			int stored = 0;
+			List<Pending> batch = this.pending.oldest(this.batchSize);
+			while (!batch.isEmpty()) {
+				try {
+					stored += save(batch);
+				}
+				catch (DataIntegrityViolationException ex) {
+					// a visit that cannot be stored, e.g. with a too long description,
+					// must not
+					// block the others
+					for (Pending visit : batch) {
+						try {
+							stored += save(List.of(visit));
+						}
+						catch (DataIntegrityViolationException rejected) {
+							reject(visit, rejected.getMessage());
+						}
+					}
+				}
+				this.pending.remove(batch);
+				checkpoint(batch.get(batch.size() - 1).seq());
+				batch = this.pending.oldest(this.batchSize);
+			}
+			return stored;
+		}
+		finally {
+			this.drainLock.unlock();
+		}
+	}
+
+	private int save(List<Pending> batch) throws IOException {
+		int stored = 0;
+		for (BatchItem item : this.visits.saveAll(batch.stream().map(Pending::visit).toList())) {
+			if (item.error() != null) {
+				reject(batch.get(item.index()), item.error());
+			}
+			else {
+				stored++;
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Move the given visit, which cannot be stored, to the rejected journal.
+	 */
+	private void reject(Pending visit, String error) throws IOException {
+		logger.warn("Moving the visit {} booked to the rejected journal: {}", visit.visit(), error);
+		this.rejected.sync(this.rejected.write(Entry.rejected(visit.seq(), visit.ownerId(), visit.visit(), error)));
+		this.rejectedCount.increment();
+	}
+
+	private void checkpoint(long seq) throws IOException {
+		long offset;
+		this.writeLock.lock();
+		try {
+			if (this.pending.size() == 0) {
+				this.journal.truncate();
+				return;
+			}
+			offset = this.journal.write(Entry.stored(seq));
+		}
+		finally {
+			this.writeLock.unlock();
+		}
+		this.journal.sync(offset);
+	}
+
+	/**
+	 * Stop the writer, storing the visits still pending if possible. The others are
+	 * stored after the next start.
+	 */
+	@PreDestroy
+	void stop() throws IOException, InterruptedException {
+		if (this.journal == null) {
+			return;
+		}
+		if (this.writer != null) {
+			this.writer.shutdown();
+			this.writer.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		drainQuietly();
+		this.journal.close();
+		this.rejected.close();
+	}
+
+}
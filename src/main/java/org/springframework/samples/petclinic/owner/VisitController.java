@@ -44,11 +44,18 @@ class VisitController {
 
 	private final OwnerRepository owners;
 
+	private final PetRepository pets;
+
 	private final VisitRepository visits;
 
-	public VisitController(OwnerRepository owners, VisitRepository visits) {
+	private final VisitBookingQueue bookings;
+
+	public VisitController(OwnerRepository owners, PetRepository pets, VisitRepository visits,
+			VisitBookingQueue bookings) {
 		this.owners = owners;
+		this.pets = pets;
 		this.visits = visits;
+		this.bookings = bookings;
 	}
 
 	@InitBinder
@@ -66,11 +73,13 @@ class VisitController {
 	@ModelAttribute("pet")
 	public Pet loadPetAndOwner(@PathVariable("ownerId") int ownerId, @PathVariable("petId") int petId,
 			Map<String, Object> model) {
-		Optional<Owner> optionalOwner = owners.findByIdWithPetsAndVisits(ownerId);
+		Optional<Owner> optionalOwner = owners.findById(ownerId);
 		Owner owner = optionalOwner.orElseThrow(() -> new IllegalArgumentException(
 				"Owner not found with id: " + ownerId + ". Please ensure the ID is correct "));
 
-		Pet pet = owner.getPet(petId);
+		Pet pet = pets.findByIdWithRecentVisits(ownerId, petId)
+			.orElseThrow(() -> new IllegalArgumentException(
+					"Pet not found with id: " + petId + ". Please ensure the ID is correct "));
 		model.put("pet", pet);
 		model.put("owner", owner);
 		return pet;
@@ -96,7 +105,7 @@ class VisitController {
 		if (result.hasErrors()) {
 			return "pets/createOrUpdateVisitForm";
 		}
-		visits.saveDetails(new Visit(visit.id(), visit.date(), visit.description(), petId));
+		bookings.book(owner.getId(), new Visit(visit.id(), visit.date(), visit.description(), petId));
 		redirectAttributes.addFlashAttribute("message", "Your visit has been booked");
 		return "redirect:/owners/{ownerId}";
 	}
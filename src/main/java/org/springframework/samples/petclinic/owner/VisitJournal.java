@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Append-only journal of the visits booked with {@link VisitBookingQueue}, one JSON entry
+ * per line: a booked visit, or a checkpoint once the visits booked up to a sequence
+ * number are stored. The visits that cannot be stored are moved to a journal of their
+ * own, as entries with the error that rejected them.
+ * <p>
+ * Entries are written without forcing them to the disk, then {@link #sync(long)} forces
+ * all the entries written so far at once, so that the bookings made while the disk is
+ * busy share the next force. A torn last line, left by a crash while it was written, is
+ * cut when the journal is opened again.
+ * </p>
+ * <p>
+ * Instances are not thread-safe for writing: callers serialize {@link #write(Entry)} and
+ * {@link #truncate()}, while {@link #sync(long)} may be called concurrently.
+ * </p>
+ */
+class VisitJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(VisitJournal.class);
+
+	/**
+	 * An entry of the journal: a visit booked for a pet of an owner, with the id it is
+	 * stored with, or a checkpoint without visit after which the visits booked up to
+	 * <code>seq</code> are stored. A rejected visit also has the error that rejected it.
+	 */
+	record Entry(long seq, Integer ownerId, Integer id, Integer petId, LocalDate date, String description,
+			String error) {
+
+		static Entry booked(long seq, int ownerId, Visit visit) {
+			return new Entry(seq, ownerId, visit.id(), visit.petId(), visit.date(), visit.description(), null);
+		}
+
+		static Entry stored(long seq) {
+			return new Entry(seq, null, null, null, null, null, null);
+		}
+
+		static Entry rejected(long seq, int ownerId, Visit visit, String error) {
+			return new Entry(seq, ownerId, visit.id(), visit.petId(), visit.date(), visit.description(), error);
+		}
+
+		boolean checkpoint() {
+			return this.ownerId == null;
+		}
+
+		Visit visit() {
+			return new Visit(this.id, this.date, this.description, this.petId);
+		}
+
+	}
+
+	private final Path path;
+
+	private final ObjectMapper objectMapper;
+
+	private final FileChannel channel;
+
+	/**
+	 * Serializes the forces, which bookings wait for on request threads, possibly virtual
+	 * ones.
+	 */
+	private final ReentrantLock syncLock = new ReentrantLock();
+
+	private long synced;
+
+	/**
+	 * Open the journal at the given path, creating it if needed.
+	 */
+	VisitJournal(Path path, ObjectMapper objectMapper) throws IOException {
+		this.path = path;
+		this.objectMapper = objectMapper;
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Read the entries of the journal, cutting it after the last complete one, and
+	 * position it to write after them.
+	 */
+	List<Entry> read() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long position = 0;
+		long valid = 0;
+		boolean corrupt = false;
+		this.channel.position(0);
+		while (!corrupt && this.channel.read(buffer) > 0) {
+			buffer.flip();
+			while (!corrupt && buffer.hasRemaining()) {
+				byte b = buffer.get();
+				position++;
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				try {
+					entries.add(this.objectMapper.readValue(line.toByteArray(), Entry.class));
+					line.reset();
+					valid = position;
+				}
+				catch (JsonProcessingException ex) {
+					logger.warn("Ignoring the entries of {} after offset {}: {}", this.path, valid, ex.getMessage());
+					corrupt = true;
+				}
+			}
+			buffer.clear();
+		}
+		if (valid < this.channel.size()) {
+			this.channel.truncate(valid);
+			this.channel.force(true);
+		}
+		this.channel.position(valid);
+		this.synced = valid;
+		return entries;
+	}
+
+	/**
+	 * Write the given entry after the others, without forcing it to the disk.
+	 * @return the offset after the entry, to {@link #sync(long) sync} up to
+	 */
+	long write(Entry entry) throws IOException {
+		byte[] json = this.objectMapper.writeValueAsBytes(entry);
+		ByteBuffer buffer = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+		while (buffer.hasRemaining()) {
+			this.channel.write(buffer);
+		}
+		return this.channel.position();
+	}
+
+	/**
+	 * Force the entries written up to the given offset to the disk, unless a force since
+	 * they were written already did.
+	 */
+	void sync(long offset) throws IOException {
+		this.syncLock.lock();
+		try {
+			if (this.synced >= offset) {
+				return;
+			}
+			long written = this.channel.position();
+			this.channel.force(false);
+			this.synced = written;
+		}
+		finally {
+			this.syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Remove all the entries, once all the visits booked are stored.
+	 */
+	void truncate() throws IOException {
+		this.syncLock.lock();
+		try {
+			this.channel.truncate(0);
+			this.channel.force(true);
+			this.synced = 0;
+		}
+		finally {
+			this.syncLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Pages of the visits of a pet, loaded by the "Show more visits" link of the owner
+ * details. Unlike the forms of the {@link VisitController}, a page only reads its visits,
+ * not the owner and the pet.
+ */
+@Controller
+class VisitPageController {
+
+	private static final int VISITS_PAGE_SIZE = 10;
+
+	private final VisitRepository visits;
+
+	public VisitPageController(VisitRepository visits) {
+		this.visits = visits;
+	}
+
+	/**
+	 * Rows of the next page of visits of a pet.
+	 * @param before the id of the last visit already displayed
+	 * @throws ResponseStatusException with a 404 status if the pet is not the owner's
+	 */
+	@GetMapping("/owners/{ownerId}/pets/{petId}/visits")
+	public String showVisits(@PathVariable int ownerId, @PathVariable int petId,
+			@RequestParam(required = false) Integer before, Model model) {
+		List<Visit> page = visits.findByPetId(ownerId, petId, before, VISITS_PAGE_SIZE + 1)
+			.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+					"Pet " + petId + " not found for owner " + ownerId));
+		model.addAttribute("ownerId", ownerId);
+		model.addAttribute("petId", petId);
+		model.addAttribute("visits", page.subList(0, Math.min(page.size(), VISITS_PAGE_SIZE)));
+		model.addAttribute("more", page.size() > VISITS_PAGE_SIZE);
+		return "owners/petVisits :: rows";
+	}
+
+}
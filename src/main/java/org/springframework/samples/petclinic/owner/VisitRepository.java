@@ -1,35 +1,252 @@
 package org.springframework.samples.petclinic.owner;
 
 import org.jooq.DSLContext;
+import org.jooq.generated.tables.Visits;
+import org.jooq.generated.tables.records.VisitsRecord;
+import org.springframework.lang.Nullable;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.samples.petclinic.system.ShardRouter;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
+import static org.jooq.generated.Tables.PETS;
 import static org.jooq.generated.Tables.VISITS;
+import static org.jooq.impl.DSL.*;
 
 @Repository
 public class VisitRepository {
 
-	private final DSLContext dsl;
+	/**
+	 * Maximum number of visits inserted by one statement of {@link #saveAll(List)}, which
+	 * keeps the bind values of each statement within the limits of the JDBC drivers.
+	 */
+	static final int INSERT_CHUNK_SIZE = 1000;
 
-	public VisitRepository(DSLContext dslContext) {
-		this.dsl = dslContext;
+	/**
+	 * The outcome of saving one visit of a batch, at the given index of the batch: the
+	 * generated id of the visit, or the error that prevented saving it.
+	 */
+	public record BatchItem(int index, Integer id, String error) {
+
+		static BatchItem saved(int index, Integer id) {
+			return new BatchItem(index, id, null);
+		}
+
+		static BatchItem rejected(int index, String error) {
+			return new BatchItem(index, null, error);
+		}
+
+	}
+
+	private final ShardRouter shards;
+
+	private final OwnerCache ownerCache;
+
+	private final PendingVisits pendingVisits;
+
+	private final IdAllocator ids;
+
+	public VisitRepository(ShardRouter shards, OwnerCache ownerCache, PendingVisits pendingVisits, IdAllocator ids) {
+		this.shards = shards;
+		this.ownerCache = ownerCache;
+		this.pendingVisits = pendingVisits;
+		this.ids = ids;
 	}
 
+	/**
+	 * Save a new visit, with an id from the {@link IdAllocator}, in a transaction of the
+	 * shard of the owner of its pet.
+	 * @return the number of visits inserted
+	 */
 	public int saveDetails(Visit visit) {
-		return dsl.insertInto(VISITS)
-			.set(VISITS.PET_ID, visit.petId())
-			.set(VISITS.VISIT_DATE, visit.date())
-			.set(VISITS.DESCRIPTION, visit.description())
-			.execute();
+		Integer ownerId = ownerOf(visit.petId());
+		int id = ids.nextId(VISITS.ID);
+		int inserted = shards.inTransactionResult((ownerId != null) ? shards.shardOf(ownerId) : 0,
+				dsl -> dsl.insertInto(VISITS)
+					.set(VISITS.ID, id)
+					.set(VISITS.PET_ID, visit.petId())
+					.set(VISITS.VISIT_DATE, visit.date())
+					.set(VISITS.DESCRIPTION, visit.description())
+					.execute());
+		if (ownerId != null) {
+			ownerCache.evict(ownerId);
+		}
+		return inserted;
+	}
+
+	/**
+	 * Save the given visits in one transaction, with multi-row inserts of up to
+	 * {@value #INSERT_CHUNK_SIZE} visits whose ids are allocated beforehand by the
+	 * {@link IdAllocator}. The pets of the visits are checked with a single query, and
+	 * the visits of unknown pets are rejected while the others are saved.
+	 * <p>
+	 * Visits that have an id already, allocated when they were booked, are inserted with
+	 * it unless a visit with that id is stored, so that saving them again is harmless.
+	 * The stored ids are read before the insert rather than ignored by it, as H2 emulates
+	 * ignoring duplicate keys of a multi-row insert with a query it parses recursively.
+	 * </p>
+	 * <p>
+	 * With several shards, the pets are checked on all of them and the visits of each
+	 * shard are inserted in a transaction of that shard, so a failure can leave the
+	 * visits of the shards before it saved.
+	 * </p>
+	 * @return the outcome of each visit, in the order of the given visits
+	 */
+	@Transactional
+	public List<BatchItem> saveAll(List<Visit> visits) {
+		Set<Integer> petIds = visits.stream().map(Visit::petId).filter(Objects::nonNull).collect(Collectors.toSet());
+		Map<Integer, Integer> owners = new HashMap<>();
+		if (!petIds.isEmpty()) {
+			shards
+				.scatter(dsl -> dsl.select(PETS.ID, PETS.OWNER_ID)
+					.from(PETS)
+					.where(PETS.ID.in(petIds))
+					.fetchMap(PETS.ID, PETS.OWNER_ID))
+				.forEach(owners::putAll);
+		}
+
+		BatchItem[] items = new BatchItem[visits.size()];
+		List<Integer> indexes = new ArrayList<>(visits.size());
+		for (int i = 0; i < items.length; i++) {
+			Integer petId = visits.get(i).petId();
+			if (owners.containsKey(petId)) {
+				indexes.add(i);
+			}
+			else {
+				items[i] = BatchItem.rejected(i, "Unknown pet: " + petId);
+			}
+		}
+		int[] visitIds = ids.nextIds(VISITS.ID,
+				(int) indexes.stream().filter(index -> visits.get(index).id() == null).count());
+		int allocated = 0;
+		Map<Integer, List<Integer>> byShard = new TreeMap<>();
+		for (int index : indexes) {
+			Integer id = visits.get(index).id();
+			items[index] = BatchItem.saved(index, (id != null) ? id : visitIds[allocated++]);
+			int shard = shards.shardOf(owners.get(visits.get(index).petId()));
+			byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(index);
+		}
+		byShard.forEach((shard, shardIndexes) -> shards.inTransaction(shard, dsl -> {
+			for (int from = 0; from < shardIndexes.size(); from += INSERT_CHUNK_SIZE) {
+				List<Integer> chunk = shardIndexes.subList(from,
+						Math.min(from + INSERT_CHUNK_SIZE, shardIndexes.size()));
+				List<Integer> booked = chunk.stream()
+					.filter(index -> visits.get(index).id() != null)
+					.map(index -> items[index].id())
+					.toList();
+				Set<Integer> stored = booked.isEmpty() ? Set.of()
+						: Set.copyOf(dsl.select(VISITS.ID).from(VISITS).where(VISITS.ID.in(booked)).fetch(VISITS.ID));
+				List<Integer> inserted = chunk.stream().filter(index -> !stored.contains(items[index].id())).toList();
+				if (!inserted.isEmpty()) {
+					dsl.insertInto(VISITS, VISITS.ID, VISITS.PET_ID, VISITS.VISIT_DATE, VISITS.DESCRIPTION)
+						.valuesOfRows(inserted.stream().map(index -> {
+							Visit visit = visits.get(index);
+							return row(items[index].id(), visit.petId(), visit.date(), visit.description());
+						}).toList())
+						.execute();
+				}
+			}
+		}));
+		indexes.stream().map(i -> owners.get(visits.get(i).petId())).distinct().forEach(ownerCache::evict);
+		return List.of(items);
 	}
 
+	/**
+	 * Retrieve the visits of a pet, the most recent first, after the visits booked but
+	 * not stored yet. The visits are looked for on every shard, as only the pet is known.
+	 * @see PendingVisits
+	 */
 	public List<Visit> findByPetId(int petId) {
-		return dsl.selectFrom(VISITS)
+		List<Visit> stored = new ArrayList<>();
+		shards
+			.scatter(dsl -> dsl.selectFrom(VISITS)
+				.where(VISITS.PET_ID.eq(petId))
+				.orderBy(VISITS.VISIT_DATE.desc())
+				.fetch(VisitRepository::toVisit))
+			.forEach(stored::addAll);
+		return withPending(petId, stored);
+	}
+
+	/**
+	 * Retrieve a page of the visits of a pet, the most recent first, in the same order as
+	 * the visits loaded with its owner.
+	 * <p>
+	 * The page is read with the seek method: it starts right after the
+	 * <code>(VISIT_DATE, ID)</code> position of the given visit instead of skipping the
+	 * visits of the previous pages.
+	 * </p>
+	 * <p>
+	 * The first page starts with the visits booked but not stored yet, which are not
+	 * counted in the limit so that the page still ends with a stored visit to read the
+	 * next page from.
+	 * </p>
+	 * @param ownerId the id of the owner of the pet, whose shard holds the visits
+	 * @param petId the id of the pet
+	 * @param before the id of the last visit of the previous page, or <code>null</code>
+	 * for the first page
+	 * @param limit the maximum number of stored visits
+	 * @return the page, or an empty {@link Optional} if the pet is not one of the owner's
+	 */
+	public Optional<List<Visit>> findByPetId(int ownerId, int petId, Integer before, int limit) {
+		DSLContext dsl = shards.forOwner(ownerId);
+		Visits last = VISITS.as("last");
+		List<Visit> page = dsl.select(VISITS.fields())
+			.from(VISITS)
+			.join(PETS)
+			.on(PETS.ID.eq(VISITS.PET_ID))
 			.where(VISITS.PET_ID.eq(petId))
-			.orderBy(VISITS.VISIT_DATE.desc())
-			.fetch(record -> new Visit(record.get(VISITS.ID), record.get(VISITS.VISIT_DATE),
-					record.get(VISITS.DESCRIPTION), record.get(VISITS.PET_ID)));
+			.and(PETS.OWNER_ID.eq(ownerId))
+			.and(before == null ? noCondition()
+					: row(VISITS.VISIT_DATE, VISITS.ID)
+						.lt(select(last.VISIT_DATE, last.ID).from(last).where(last.ID.eq(before))))
+			.orderBy(VISITS.VISIT_DATE.desc(), VISITS.ID.desc())
+			.limit(limit)
+			.fetch(record -> toVisit(record.into(VISITS)));
+		// an empty page does not tell a pet without visits from the pet of another owner
+		if (page.isEmpty() && !dsl.fetchExists(PETS, PETS.ID.eq(petId).and(PETS.OWNER_ID.eq(ownerId)))) {
+			return Optional.empty();
+		}
+		return Optional.of((before == null) ? withPending(petId, page) : page);
+	}
+
+	/**
+	 * Return the id of the owner of the given pet, looked for on every shard, or
+	 * <code>null</code> if the pet is unknown.
+	 */
+	@Nullable
+	private Integer ownerOf(Integer petId) {
+		return shards
+			.scatter(dsl -> dsl.select(PETS.OWNER_ID).from(PETS).where(PETS.ID.eq(petId)).fetchOne(PETS.OWNER_ID))
+			.stream()
+			.filter(Objects::nonNull)
+			.findFirst()
+			.orElse(null);
+	}
+
+	private List<Visit> withPending(int petId, List<Visit> stored) {
+		List<Visit> pending = pendingVisits.findByPetId(petId, stored);
+		if (pending.isEmpty()) {
+			return stored;
+		}
+		List<Visit> visits = new ArrayList<>(pending.size() + stored.size());
+		visits.addAll(pending);
+		visits.addAll(stored);
+		return visits;
+	}
+
+	private static Visit toVisit(VisitsRecord record) {
+		return new Visit(record.get(VISITS.ID), record.get(VISITS.VISIT_DATE), record.get(VISITS.DESCRIPTION),
+				record.get(VISITS.PET_ID));
 	}
 
 }
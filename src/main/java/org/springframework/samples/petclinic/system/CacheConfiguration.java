@@ -16,10 +16,22 @@
 
 package org.springframework.samples.petclinic.system;
 
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
 import org.springframework.boot.autoconfigure.cache.JCacheManagerCustomizer;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.samples.petclinic.owner.Owner;
+import org.springframework.samples.petclinic.vet.VetRepository;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import javax.cache.configuration.MutableConfiguration;
 
@@ -27,6 +39,22 @@ import javax.cache.configuration.MutableConfiguration;
  * Cache configuration intended for caches providing the JCache API. This configuration
  * creates the used cache for the application and enables statistics that become
  * accessible via JMX.
+ * <p>
+ * When Caffeine is used directly, the "owners" cache of owner aggregates is bounded by
+ * the number of entities it holds rather than by the number of owners, and records
+ * hit/miss statistics that are published as cache metrics.
+ * </p>
+ * <p>
+ * The "vets" cache of the list of all vets and the "vetPages" cache of pages of vets are
+ * configured with Caffeine specifications, and reload their entries from the database
+ * ahead of expiry. Their statistics are published as cache metrics as well. The hits and
+ * misses of these caches are also counted in the {@link RequestProfile} of the request.
+ * </p>
+ * <p>
+ * The "ownerCounts" cache keeps the totals of the owner searches counted with
+ * {@link CountStrategy#CACHED}, by searched last name, until an owner is added or
+ * renamed.
+ * </p>
  */
 @Configuration(proxyBeanMethods = false)
 @EnableCaching
@@ -34,7 +62,56 @@ class CacheConfiguration {
 
 	@Bean
 	public JCacheManagerCustomizer petclinicCacheConfigurationCustomizer() {
-		return cm -> cm.createCache("vets", cacheConfiguration());
+		return cm -> {
+			cm.createCache("vets", cacheConfiguration());
+			cm.createCache("vetPages", cacheConfiguration());
+			cm.createCache("owners", cacheConfiguration());
+			cm.createCache("ownerCounts", cacheConfiguration());
+		};
+	}
+
+	@Bean
+	public CacheManagerCustomizer<CaffeineCacheManager> petclinicCaffeineCacheCustomizer(
+			@Value("${petclinic.cache.owners.max-weight:50000}") long ownersMaxWeight,
+			@Value("${petclinic.cache.vets.spec:maximumSize=1,expireAfterWrite=1h,refreshAfterWrite=10m}") String vetsSpec,
+			@Value("${petclinic.cache.vet-pages.spec:maximumSize=100,expireAfterWrite=1h,refreshAfterWrite=10m}") String vetPagesSpec,
+			@Value("${petclinic.cache.owner-counts.spec:maximumSize=10000,expireAfterWrite=1m}") String ownerCountsSpec,
+			ObjectProvider<VetRepository> vets,
+			@Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+		return cm -> {
+			cm.registerCustomCache("owners",
+					Caffeine.newBuilder()
+						.maximumWeight(ownersMaxWeight)
+						.weigher(CacheConfiguration::ownerWeight)
+						.recordStats(RequestProfile::statsCounter)
+						.build());
+			cm.registerCustomCache("ownerCounts",
+					Caffeine.from(ownerCountsSpec).recordStats(RequestProfile::statsCounter).build());
+			// loading caches, so that entries past refreshAfterWrite are reloaded in the
+			// background, by the task executor rather than the common pool since they
+			// block on the database, while the previous value is still served
+			cm.registerCustomCache("vets",
+					Caffeine.from(vetsSpec)
+						.executor(executor)
+						.recordStats(RequestProfile::statsCounter)
+						.build(key -> vets.getObject().fetchAll()));
+			cm.registerCustomCache("vetPages",
+					Caffeine.from(vetPagesSpec)
+						.executor(executor)
+						.recordStats(RequestProfile::statsCounter)
+						.build(key -> vets.getObject().fetchAll((Pageable) key)));
+		};
+	}
+
+	/**
+	 * Weigh a cached owner by the number of entities of its aggregate: the owner, its
+	 * pets and their visits.
+	 */
+	private static int ownerWeight(Object key, Object value) {
+		if (value instanceof Owner owner) {
+			return 1 + owner.getPets().stream().mapToInt(pet -> 1 + pet.getVisits().size()).sum();
+		}
+		return 1;
 	}
 
 	/**
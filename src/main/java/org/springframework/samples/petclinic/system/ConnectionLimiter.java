@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Data source limiting the number of threads using a connection at the same time, so that
+ * many threads wanting one, such as virtual threads each handling a request, wait in a
+ * fair queue of their own instead of piling up in the connection pool or holding carrier
+ * threads while blocked in JDBC calls.
+ * <p>
+ * A thread takes a permit when it gets a connection and gives it back when it has closed
+ * all the connections it got. The connections that a thread gets while it holds one, such
+ * as the connection of a nested transaction, do not take another permit: they come from
+ * the connections of the pool beyond the permits, which should be fewer than the
+ * connections of the pool. A thread waiting longer than the timeout gets a
+ * {@link SQLTransientConnectionException}, as when the pool times out.
+ * </p>
+ * <p>
+ * The number of connections in use and of waiting threads are published as the
+ * <code>petclinic.db.limiter.active</code> and <code>petclinic.db.limiter.waiting</code>
+ * gauges, the waits as the <code>petclinic.db.limiter.wait</code> timer and the timeouts
+ * as the <code>petclinic.db.limiter.timeouts</code> counter.
+ * </p>
+ */
+public class ConnectionLimiter extends DelegatingDataSource {
+
+	private final int permits;
+
+	private final Semaphore semaphore;
+
+	private final Duration timeout;
+
+	private final ThreadLocal<AtomicInteger> heldByThread = ThreadLocal.withInitial(AtomicInteger::new);
+
+	private volatile Timer waits;
+
+	private volatile Counter timeouts;
+
+	/**
+	 * @param permits the maximum number of threads using a connection at the same time
+	 * @param timeout how long a thread waits for a permit
+	 */
+	public ConnectionLimiter(DataSource dataSource, int permits, Duration timeout) {
+		super(dataSource);
+		this.permits = permits;
+		this.semaphore = new Semaphore(permits, true);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Register the meters of the limiter.
+	 */
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("petclinic.db.limiter.active", this, ConnectionLimiter::getActive)
+			.description("Threads using a database connection")
+			.register(registry);
+		Gauge.builder("petclinic.db.limiter.waiting", this, ConnectionLimiter::getWaiting)
+			.description("Threads waiting to use a database connection")
+			.register(registry);
+		this.waits = Timer.builder("petclinic.db.limiter.wait")
+			.description("Waits to use a database connection")
+			.publishPercentileHistogram()
+			.register(registry);
+		this.timeouts = Counter.builder("petclinic.db.limiter.timeouts")
+			.description("Threads that waited too long to use a database connection")
+			.register(registry);
+	}
+
+	/**
+	 * Return the number of threads holding a permit.
+	 */
+	public int getActive() {
+		return this.permits - this.semaphore.availablePermits();
+	}
+
+	/**
+	 * Return the number of threads waiting for a permit.
+	 */
+	public int getWaiting() {
+		return this.semaphore.getQueueLength();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		AtomicInteger held = this.heldByThread.get();
+		acquire(held);
+		try {
+			return limited(super.getConnection(), held);
+		}
+		catch (SQLException | RuntimeException ex) {
+			release(held);
+			throw ex;
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		AtomicInteger held = this.heldByThread.get();
+		acquire(held);
+		try {
+			return limited(super.getConnection(username, password), held);
+		}
+		catch (SQLException | RuntimeException ex) {
+			release(held);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Take a permit, unless the thread already holds one.
+	 * @param held the number of connections held by the thread
+	 */
+	private void acquire(AtomicInteger held) throws SQLException {
+		if (held.get() > 0) {
+			held.incrementAndGet();
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			if (!this.semaphore.tryAcquire(this.timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+				if (this.timeouts != null) {
+					this.timeouts.increment();
+				}
+				throw new SQLTransientConnectionException("No database connection available after "
+						+ this.timeout.toMillis() + " ms, " + this.semaphore.getQueueLength() + " threads waiting");
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", ex);
+		}
+		if (this.waits != null) {
+			this.waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		held.set(1);
+	}
+
+	/**
+	 * Give back a connection of the thread holding the given count, even if closed by
+	 * another one, and the permit of the thread with its last connection.
+	 */
+	private void release(AtomicInteger held) {
+		if (held.getAndUpdate(count -> Math.max(count - 1, 0)) == 1) {
+			this.semaphore.release();
+		}
+	}
+
+	/**
+	 * Return a proxy of the given connection giving its permit back when it is closed.
+	 */
+	private Connection limited(Connection connection, AtomicInteger held) {
+		AtomicBoolean closed = new AtomicBoolean();
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "close" -> {
+							if (closed.compareAndSet(false, true)) {
+								try {
+									connection.close();
+								}
+								finally {
+									release(held);
+								}
+							}
+							return null;
+						}
+						case "isClosed" -> {
+							return closed.get() || connection.isClosed();
+						}
+						case "equals" -> {
+							return proxy == args[0];
+						}
+						case "hashCode" -> {
+							return System.identityHashCode(proxy);
+						}
+						case "unwrap" -> {
+							Class<?> type = (Class<?>) args[0];
+							return type.isInstance(proxy) ? proxy : connection.unwrap(type);
+						}
+						case "isWrapperFor" -> {
+							Class<?> type = (Class<?>) args[0];
+							return type.isInstance(proxy) || connection.isWrapperFor(type);
+						}
+						default -> {
+							try {
+								return method.invoke(connection, args);
+							}
+							catch (InvocationTargetException ex) {
+								throw ex.getTargetException();
+							}
+						}
+					}
+				});
+	}
+
+}
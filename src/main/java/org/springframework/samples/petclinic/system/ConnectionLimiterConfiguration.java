@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Limits the threads using a database connection at the same time with a
+ * {@link ConnectionLimiter} around the data source, beneath both the transactions and
+ * jOOQ, when <code>petclinic.db.limiter.enabled</code> is set, as in the
+ * "virtual-threads" profile.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "petclinic.db.limiter.enabled", havingValue = "true")
+class ConnectionLimiterConfiguration {
+
+	@Bean
+	static BeanPostProcessor connectionLimiterPostProcessor(@Value("${petclinic.db.limiter.permits:8}") int permits,
+			@Value("${petclinic.db.limiter.timeout:30s}") Duration timeout) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource dataSource && !(bean instanceof ConnectionLimiter)) {
+					return new ConnectionLimiter(dataSource, permits, timeout);
+				}
+				return bean;
+			}
+		};
+	}
+
+	@Bean
+	MeterBinder connectionLimiterMetrics(DataSource dataSource) {
+		return registry -> {
+			if (dataSource instanceof ConnectionLimiter limiter) {
+				limiter.bindTo(registry);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.springframework.samples.petclinic.system;
+
+/**
+ * How the total number of elements of a {@link Page} is computed.
+ *
+ * @see JooqHelper#fetchPage
+ */
+public enum CountStrategy {
+
+	/**
+	 * Count all matching rows with <code>count(*) over()</code> in the page query. Always
+	 * exact, but the database has to visit every matching row.
+	 */
+	EXACT,
+
+	/**
+	 * Count all matching rows with a separate query and cache the result per search, see
+	 * {@link JooqHelper.CachedCount}.
+	 */
+	CACHED,
+
+	/**
+	 * Use the row estimate of the query planner (<code>EXPLAIN</code>). Falls back to
+	 * {@link #NONE} on databases that don't report one.
+	 */
+	ESTIMATED,
+
+	/**
+	 * Don't count: read one row more than the page size to know whether there is a next
+	 * page.
+	 */
+	NONE
+
+}
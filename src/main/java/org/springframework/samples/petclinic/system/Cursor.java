@@ -0,0 +1,107 @@
+package org.springframework.samples.petclinic.system;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Position of the last row of a page, used to seek to the next page instead of skipping
+ * rows with <code>OFFSET</code>. The values are the ones of the sort columns, in sort
+ * order, and are exchanged with the browser as an opaque URL-safe token.
+ *
+ * @param total the exact number of rows counted for the first page, carried along so that
+ * the next pages do not count them again, or <code>null</code> if not known
+ * @see JooqHelper#slice
+ */
+public record Cursor(List<String> values, @Nullable Long total) {
+
+	public Cursor {
+		values = List.copyOf(values);
+	}
+
+	public Cursor(List<String> values) {
+		this(values, null);
+	}
+
+	public static Cursor of(Object... values) {
+		List<String> strings = new ArrayList<>(values.length);
+		for (Object value : values) {
+			strings.add(String.valueOf(value));
+		}
+		return new Cursor(strings);
+	}
+
+	public Cursor withTotal(long total) {
+		return new Cursor(values, total);
+	}
+
+	public String getString(int index) {
+		return values.get(index);
+	}
+
+	public int getInt(int index) {
+		return Integer.parseInt(values.get(index));
+	}
+
+	/**
+	 * Encode this cursor as a token that can be used in a link.
+	 */
+	public String encode() {
+		StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			sb.append(value.length()).append(':').append(value);
+		}
+		if (total != null) {
+			sb.append('=').append(total);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decode a token created by {@link #encode()}.
+	 * @throws IllegalArgumentException if the token has not been created by this class
+	 */
+	public static Cursor decode(String token) {
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			List<String> values = new ArrayList<>();
+			Long total = null;
+			int pos = 0;
+			while (pos < decoded.length()) {
+				if (decoded.charAt(pos) == '=') {
+					total = Long.valueOf(decoded.substring(pos + 1));
+					if (total < 0) {
+						throw new IllegalArgumentException("Negative total");
+					}
+					break;
+				}
+				int colon = decoded.indexOf(':', pos);
+				int length = Integer.parseInt(decoded, pos, colon, 10);
+				values.add(decoded.substring(colon + 1, colon + 1 + length));
+				pos = colon + 1 + length;
+			}
+			return new Cursor(values, total);
+		}
+		catch (RuntimeException ex) {
+			throw new IllegalArgumentException("Invalid cursor: " + token, ex);
+		}
+	}
+
+	/**
+	 * Decode a token created by {@link #encode()} for a sort of the given number of
+	 * columns.
+	 * @throws IllegalArgumentException if the token has not been created by this class,
+	 * or for another sort
+	 */
+	public static Cursor decode(String token, int size) {
+		Cursor cursor = decode(token);
+		if (cursor.values().size() != size) {
+			throw new IllegalArgumentException("Invalid cursor: " + token + ", expected " + size + " values");
+		}
+		return cursor;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.jooq.impl.DSL.currentSchema;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.generateSeries;
+import static org.jooq.impl.DSL.greatest;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.lower;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.sequence;
+import static org.jooq.impl.DSL.table;
+import static org.jooq.impl.DSL.unquotedName;
+import static org.jooq.impl.SQLDataType.BIGINT;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.SQLDialect;
+import org.jooq.Sequence;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Allocation of the ids of new rows before they are inserted, so that inserts need not
+ * read back generated keys and can be batched.
+ * <p>
+ * Ids are handed out from blocks, with an atomic increment and without locking until a
+ * block is used up. Each block is reserved with one call to the sequence of the table,
+ * named after it with a <code>_seq</code> suffix, which returns the last id of the block
+ * (the "pooled" optimization). The size of the blocks is the increment of the sequence,
+ * read from <code>information_schema.sequences</code> of the current schema, so that it
+ * always matches the schema. MySQL has no sequences, so the last id reserved for each
+ * sequence name is kept in the <code>id_sequences</code> table instead, and the blocks
+ * have the allocation size.
+ * </p>
+ * <p>
+ * Blocks are reserved in transactions of their own, which neither wait for nor roll back
+ * with the transactions inserting the rows. The first block reserved for a table, and the
+ * first one after {@link #reset(TableField)}, starts after the largest id of the table on
+ * all the shards of the {@link ShardRouter}: the sequence is moved past the rows inserted
+ * without it, never back, by skipping blocks with <code>nextval</code>, which other
+ * instances may call at the same time, or with <code>GREATEST</code> on MySQL.
+ * </p>
+ */
+@Component
+public class IdAllocator {
+
+	private static final Table<?> ID_SEQUENCES = table(unquotedName("id_sequences"));
+
+	private static final Field<String> ID_SEQUENCES_NAME = field(unquotedName("name"), String.class);
+
+	private static final Field<Long> ID_SEQUENCES_LAST_ID = field(unquotedName("last_id"), Long.class);
+
+	private final DSLContext dsl;
+
+	private final ShardRouter shards;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int allocationSize;
+
+	private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * @param allocationSize the number of ids reserved at a time for each table on MySQL
+	 */
+	public IdAllocator(ShardRouter shards, PlatformTransactionManager transactionManager,
+			@Value("${petclinic.ids.allocation-size:50}") int allocationSize) {
+		this.dsl = shards.main();
+		this.shards = shards;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.allocationSize = allocationSize;
+	}
+
+	/**
+	 * Return a new id of the given table.
+	 * @param id the id column of the table
+	 */
+	public int nextId(TableField<?, Integer> id) {
+		return next(pool(id));
+	}
+
+	/**
+	 * Return the given number of new ids of the given table, in increasing order.
+	 * @param id the id column of the table
+	 */
+	public int[] nextIds(TableField<?, Integer> id, int count) {
+		Pool pool = pool(id);
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = next(pool);
+		}
+		return ids;
+	}
+
+	/**
+	 * Discard the ids reserved for the given table, after rows have been inserted with
+	 * ids of their own, so that the next ones start after the largest id of the table.
+	 * The block being handed out is used up under the lock of the pool, so that the
+	 * threads still using it reserve a new one.
+	 * @param id the id column of the table
+	 */
+	public void reset(TableField<?, Integer> id) {
+		Pool pool = this.pools.get(id.getTable().getName());
+		if (pool == null) {
+			return;
+		}
+		pool.lock.lock();
+		try {
+			Block current = pool.block;
+			current.next().set(current.end());
+			pool.block = Block.EMPTY;
+			pool.started = false;
+		}
+		finally {
+			pool.lock.unlock();
+		}
+	}
+
+	private Pool pool(TableField<?, Integer> id) {
+		return this.pools.computeIfAbsent(id.getTable().getName(), name -> new Pool(id));
+	}
+
+	private int next(Pool pool) {
+		while (true) {
+			Block current = pool.block;
+			long next = current.next().getAndIncrement();
+			if (next < current.end()) {
+				return Math.toIntExact(next);
+			}
+			pool.lock.lock();
+			try {
+				if (pool.block == current) {
+					long last = this.transactionTemplate.execute(status -> reserve(pool));
+					pool.block = new Block(new AtomicLong(last - pool.blockSize + 1), last + 1);
+				}
+			}
+			finally {
+				pool.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Reserve the next block of ids of the given pool, returning its last id.
+	 */
+	private long reserve(Pool pool) {
+		if (pool.blockSize == 0) {
+			pool.blockSize = blockSize(pool.sequence);
+		}
+		if (pool.started) {
+			return advance(pool);
+		}
+		long after = this.shards
+			.scatter(dsl -> dsl.select(max(pool.id)).from(pool.id.getTable()).fetchOne(0, Integer.class))
+			.stream()
+			.filter(Objects::nonNull)
+			.mapToLong(Integer::longValue)
+			.max()
+			.orElse(0);
+		long last;
+		if (hasSequences()) {
+			// the blocks before the largest id are skipped, as many at once as needed
+			last = advance(pool);
+			while (last - pool.blockSize < after) {
+				int skipped = Math.toIntExact((after - last + pool.blockSize - 1) / pool.blockSize + 1);
+				last = this.dsl.select(max(pool.sequence.nextval()))
+					.from(generateSeries(1, skipped))
+					.fetchOne(0, Long.class);
+			}
+		}
+		else {
+			this.dsl.update(ID_SEQUENCES)
+				.set(ID_SEQUENCES_LAST_ID, greatest(ID_SEQUENCES_LAST_ID, inline(after)))
+				.where(ID_SEQUENCES_NAME.eq(pool.sequence.getName()))
+				.execute();
+			last = advance(pool);
+		}
+		pool.started = true;
+		return last;
+	}
+
+	/**
+	 * Advance the sequence of the given pool by one block, returning its new value.
+	 */
+	private long advance(Pool pool) {
+		if (hasSequences()) {
+			return this.dsl.nextval(pool.sequence);
+		}
+		int updated = this.dsl.update(ID_SEQUENCES)
+			.set(ID_SEQUENCES_LAST_ID,
+					field("last_insert_id({0})", Long.class, ID_SEQUENCES_LAST_ID.plus(pool.blockSize)))
+			.where(ID_SEQUENCES_NAME.eq(pool.sequence.getName()))
+			.execute();
+		if (updated == 0) {
+			throw new IllegalStateException("No row for " + pool.sequence.getName() + " in id_sequences");
+		}
+		// the value set by last_insert_id(expr), on the connection of the transaction
+		return this.dsl.select(field("last_insert_id()", Long.class)).fetchOne(0, Long.class);
+	}
+
+	/**
+	 * Return the number of ids of the blocks of the given sequence: its increment, or the
+	 * allocation size on MySQL.
+	 */
+	private int blockSize(Sequence<Long> sequence) {
+		if (!hasSequences()) {
+			return this.allocationSize;
+		}
+		String increment = this.dsl.select(field(unquotedName("increment"), String.class))
+			.from(table(unquotedName("information_schema", "sequences")))
+			.where(lower(field(unquotedName("sequence_name"), String.class)).eq(sequence.getName()))
+			.and(lower(field(unquotedName("sequence_schema"), String.class)).eq(lower(currentSchema())))
+			.fetchAny(0, String.class);
+		if (increment == null) {
+			throw new IllegalStateException("No sequence " + sequence.getName() + " in information_schema");
+		}
+		int size = Integer.parseInt(increment.trim());
+		if (size < 1) {
+			throw new IllegalStateException(
+					"Sequence " + sequence.getName() + " increments by " + size + ", expected a block size");
+		}
+		return size;
+	}
+
+	private boolean hasSequences() {
+		return this.dsl.family() != SQLDialect.MYSQL;
+	}
+
+	/**
+	 * The block of ids being handed out: from <code>next</code> to <code>end</code>
+	 * excluded.
+	 */
+	private record Block(AtomicLong next, long end) {
+
+		static final Block EMPTY = new Block(new AtomicLong(), 0);
+
+	}
+
+	/**
+	 * The ids of one table, reserved with its sequence.
+	 */
+	private static final class Pool {
+
+		private final TableField<?, Integer> id;
+
+		private final Sequence<Long> sequence;
+
+		/**
+		 * Guards the reservations: the threads needing ids wait for the block being
+		 * reserved, parked rather than pinned when they are virtual.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private volatile Block block = Block.EMPTY;
+
+		/**
+		 * Whether a block was reserved, after which the sequence is known to be past the
+		 * ids of the table. Guarded by the lock.
+		 */
+		private boolean started;
+
+		/**
+		 * The number of ids of a block, read when the first one is reserved. Guarded by
+		 * the lock.
+		 */
+		private int blockSize;
+
+		Pool(TableField<?, Integer> id) {
+			this.id = id;
+			this.sequence = sequence(unquotedName(id.getTable().getName().toLowerCase(Locale.ROOT) + "_seq"), BIGINT);
+		}
+
+	}
+
+}
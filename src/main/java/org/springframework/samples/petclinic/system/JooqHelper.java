@@ -1,9 +1,21 @@
 package org.springframework.samples.petclinic.system;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 import org.jooq.DSLContext;
 import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+import org.jooq.Result;
 import org.jooq.Select;
 import org.jooq.Table;
+import org.jooq.exception.DataAccessException;
+import org.springframework.cache.Cache;
+import org.springframework.lang.Nullable;
 
 import static org.jooq.impl.DSL.*;
 import static org.jooq.impl.DSL.inline;
@@ -13,9 +25,26 @@ import static org.jooq.impl.DSL.max;
  * @see <a href=
  * "https://blog.jooq.org/calculating-pagination-metadata-without-extra-roundtrips-in-sql/">
  * Calculating Pagination Metadata Without Extra Roundtrips in SQL</a>
+ * @see <a href=
+ * "https://blog.jooq.org/faster-sql-paging-with-jooq-using-the-seek-method/"> Faster SQL
+ * Paging with jOOQ Using the Seek Method</a>
  */
 public class JooqHelper {
 
+	/**
+	 * Where the totals computed with {@link CountStrategy#CACHED} are kept: a cache of
+	 * the application, which the repositories evict when they write, and the key of the
+	 * query, such as its search condition.
+	 */
+	public record CachedCount(Cache cache, Object key) {
+
+		long get(Supplier<Long> count) {
+			Long total = this.cache.get(this.key, count::get);
+			return (total != null) ? total : count.get();
+		}
+
+	}
+
 	private JooqHelper() {
 		// Prevent instantiation
 	}
@@ -41,4 +70,194 @@ public class JooqHelper {
 			.orderBy(t.fields(sort));
 	}
 
+	/**
+	 * Fetch one page of <code>original</code> sorted by <code>sort</code>, computing the
+	 * total number of rows according to the {@link CountStrategy} of the
+	 * {@link Pageable}.
+	 * <p>
+	 * With {@link CountStrategy#EXACT}, the offset pages count the rows with a window
+	 * function, and the cursor of the next page carries that total: a keyset page only
+	 * reads its rows with {@link #slice}, and counts them separately only when the cursor
+	 * does not know the total.
+	 * </p>
+	 * @param cachedCount where the total is cached with {@link CountStrategy#CACHED}, or
+	 * <code>null</code> to count every time
+	 * @param mapper maps a row of <code>original</code> to an element of the page
+	 * @param cursor computes the position of an element, used to seek the next page
+	 */
+	public static <T> Page<T> fetchPage(DSLContext dsl, Select<?> original, Field<?>[] sort, Pageable pageable,
+			@Nullable CachedCount cachedCount, RecordMapper<Record, T> mapper, Function<T, Cursor> cursor) {
+		Object[] after = pageable.isKeyset() ? pageable.after().values().toArray() : null;
+		List<T> content;
+		long total;
+		boolean exact;
+		if (pageable.countStrategy() == CountStrategy.EXACT && pageable.isKeyset()) {
+			content = slice(dsl, original, sort, after, pageable.pageSize(), 0).fetch(mapper);
+			total = (pageable.after().total() != null) ? pageable.after().total() : dsl.fetchCount(original);
+			exact = true;
+		}
+		else if (pageable.countStrategy() == CountStrategy.EXACT) {
+			var ref = new Object() {
+				long totalRows = 0;
+
+			};
+			content = paginate(dsl, original, sort, pageable.pageSize(), pageable.getOffset()).fetch(it -> {
+				ref.totalRows = it.get("total_rows", Long.class);
+				return mapper.map(it);
+			});
+			total = ref.totalRows;
+			exact = true;
+		}
+		else {
+			Result<?> rows = slice(dsl, original, sort, after, pageable.pageSize() + 1,
+					pageable.isKeyset() ? 0 : pageable.getOffset())
+				.fetch();
+			boolean hasNext = rows.size() > pageable.pageSize();
+			content = rows.stream().limit(pageable.pageSize()).map(mapper::map).toList();
+			long seen = pageable.getOffset() + content.size();
+			if (hasNext) {
+				total = Math.max(seen + 1, switch (pageable.countStrategy()) {
+					case CACHED -> cached(cachedCount, () -> (long) dsl.fetchCount(original));
+					case ESTIMATED -> estimateCount(dsl, original);
+					default -> 0;
+				});
+				exact = false;
+			}
+			else {
+				// The last page has been read, so the total is known
+				total = seen;
+				exact = true;
+			}
+		}
+		return new Page<>(content, pageable, total, next(content, pageable, total, cursor), exact);
+	}
+
+	/**
+	 * Fetch one page of <code>original</code> sorted by <code>sort</code> from all the
+	 * shards, which hold disjoint parts of its rows. Each shard is read in parallel up to
+	 * the end of the page, and their sorted slices are merged in the given order, which
+	 * must be the order of <code>sort</code>. The total is computed according to the
+	 * {@link CountStrategy} of the {@link Pageable}, summing the shards.
+	 * @param original creates the query for a shard
+	 * @param order the order of the elements, the same as <code>sort</code>
+	 * @see #fetchPage(DSLContext, Select, Field[], Pageable, CachedCount, RecordMapper,
+	 * Function)
+	 */
+	public static <T> Page<T> fetchPage(ShardRouter shards, Function<DSLContext, Select<?>> original, Field<?>[] sort,
+			Pageable pageable, @Nullable CachedCount cachedCount, RecordMapper<Record, T> mapper,
+			Comparator<? super T> order, Function<T, Cursor> cursor) {
+		if (shards.size() == 1) {
+			return fetchPage(shards.main(), original.apply(shards.main()), sort, pageable, cachedCount, mapper, cursor);
+		}
+		Object[] after = pageable.isKeyset() ? pageable.after().values().toArray() : null;
+		long skip = pageable.isKeyset() ? 0 : pageable.getOffset();
+		long limit = skip + pageable.pageSize() + 1;
+		List<List<T>> slices = shards
+			.scatter(dsl -> slice(dsl, original.apply(dsl), sort, after, limit, 0).fetch(mapper));
+		List<T> merged = merge(slices, order, limit);
+		List<T> content = merged.stream().skip(skip).limit(pageable.pageSize()).toList();
+		long seen = pageable.getOffset() + content.size();
+		long total;
+		boolean exact;
+		if (merged.size() < limit) {
+			// The last page has been read, so the total is known
+			total = seen;
+			exact = true;
+		}
+		else {
+			Function<DSLContext, Long> count = switch (pageable.countStrategy()) {
+				case EXACT, CACHED -> dsl -> (long) dsl.fetchCount(original.apply(dsl));
+				case ESTIMATED -> dsl -> estimateCount(dsl, original.apply(dsl));
+				default -> dsl -> 0L;
+			};
+			exact = pageable.countStrategy() == CountStrategy.EXACT;
+			if (exact && pageable.isKeyset() && pageable.after().total() != null) {
+				total = pageable.after().total();
+			}
+			else if (pageable.countStrategy() == CountStrategy.CACHED) {
+				total = cached(cachedCount, () -> sum(shards.scatter(count)));
+			}
+			else {
+				total = sum(shards.scatter(count));
+			}
+			if (!exact) {
+				total = Math.max(seen + 1, total);
+			}
+		}
+		return new Page<>(content, pageable, total, next(content, pageable, total, cursor), exact);
+	}
+
+	/**
+	 * Return the cursor after the last element of the page, carrying the total when it
+	 * has been counted exactly, or <code>null</code> if this is the last page.
+	 */
+	private static <T> Cursor next(List<T> content, Pageable pageable, long total, Function<T, Cursor> cursor) {
+		if (content.isEmpty() || pageable.getOffset() + content.size() >= total) {
+			return null;
+		}
+		Cursor next = cursor.apply(content.get(content.size() - 1));
+		return (pageable.countStrategy() == CountStrategy.EXACT) ? next.withTotal(total) : next;
+	}
+
+	/**
+	 * Merge the given sorted lists into one, up to <code>limit</code> elements.
+	 */
+	static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> order, long limit) {
+		List<T> merged = new ArrayList<>();
+		int[] positions = new int[lists.size()];
+		while (merged.size() < limit) {
+			int next = -1;
+			for (int i = 0; i < lists.size(); i++) {
+				if (positions[i] < lists.get(i).size() && (next < 0
+						|| order.compare(lists.get(i).get(positions[i]), lists.get(next).get(positions[next])) < 0)) {
+					next = i;
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			merged.add(lists.get(next).get(positions[next]++));
+		}
+		return merged;
+	}
+
+	private static long cached(@Nullable CachedCount cachedCount, Supplier<Long> count) {
+		return (cachedCount != null) ? cachedCount.get(count) : count.get();
+	}
+
+	private static long sum(List<Long> values) {
+		return values.stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * Select at most <code>limit</code> rows of <code>original</code>, without any
+	 * pagination metadata, starting after the <code>after</code> position if not
+	 * <code>null</code> or at <code>offset</code> otherwise.
+	 */
+	public static Select<?> slice(DSLContext dsl, Select<?> original, Field<?>[] sort, Object[] after, long limit,
+			long offset) {
+		Table<?> u = original.asTable("u");
+
+		return dsl.select(u.fields(original.getSelect().toArray(Field[]::new)))
+			.from(u)
+			.where(after == null ? noCondition() : row(u.fields(sort)).gt(after))
+			.orderBy(u.fields(sort))
+			.limit(limit)
+			.offset(offset);
+	}
+
+	/**
+	 * Return the number of rows the query planner expects <code>query</code> to return,
+	 * or 0 if the database does not provide an estimate.
+	 */
+	public static long estimateCount(DSLContext dsl, Select<?> query) {
+		try {
+			double rows = dsl.explain(query).rows();
+			return Double.isNaN(rows) ? 0 : (long) rows;
+		}
+		catch (DataAccessException ex) {
+			return 0;
+		}
+	}
+
 }
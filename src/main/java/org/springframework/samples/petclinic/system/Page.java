@@ -4,11 +4,20 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
-public record Page<T>(List<T> content, Pageable pageable, long total) implements Iterable<T> {
+/**
+ * @param next position of the last element of this page, or <code>null</code> if this is
+ * the last page
+ * @param totalExact whether <code>total</code> is exact, or a lower bound or estimate
+ * depending on the {@link CountStrategy}
+ */
+public record Page<T>(List<T> content, Pageable pageable, long total, Cursor next,
+		boolean totalExact) implements Iterable<T> {
 
-	public Page(List<T> content, Pageable pageable, long total) {
+	public Page(List<T> content, Pageable pageable, long total, Cursor next, boolean totalExact) {
 		this.content = content;
 		this.pageable = pageable;
+		this.next = next;
+		this.totalExact = totalExact;
 
 		this.total = Optional.of(pageable)
 			.filter(it -> !content.isEmpty())//
@@ -17,6 +26,10 @@ public record Page<T>(List<T> content, Pageable pageable, long total) implements
 			.orElse(total);
 	}
 
+	public Page(List<T> content, Pageable pageable, long total) {
+		this(content, pageable, total, null, true);
+	}
+
 	public Page(List<T> content) {
 		this(content, Pageable.of(0, content.size()), content.size());
 	}
@@ -37,6 +50,14 @@ public record Page<T>(List<T> content, Pageable pageable, long total) implements
 		return content.iterator();
 	}
 
+	public boolean isTotalExact() {
+		return totalExact;
+	}
+
+	/**
+	 * Return the number of pages. When the total is not exact, this is at least the
+	 * number of the next page if there is one.
+	 */
 	public int getTotalPages() {
 		return getSize() == 0 ? 1 : (int) Math.ceil((double) total / (double) getSize());
 	}
@@ -45,4 +66,12 @@ public record Page<T>(List<T> content, Pageable pageable, long total) implements
 		return pageable.pageSize();
 	}
 
+	/**
+	 * Return the token of the cursor pointing to the next page, or <code>null</code> if
+	 * there is no next page.
+	 */
+	public String getNextCursor() {
+		return next == null ? null : next.encode();
+	}
+
 }
@@ -1,11 +1,32 @@
 package org.springframework.samples.petclinic.system;
 
-public record Pageable(int pageNumber, int pageSize) {
+/**
+ * Page request. When {@link #after()} is set the page starts right after that position
+ * (keyset pagination) and {@link #pageNumber()} is only used for display and to compute
+ * the total number of elements.
+ */
+public record Pageable(int pageNumber, int pageSize, Cursor after, CountStrategy countStrategy) {
+
+	public Pageable(int pageNumber, int pageSize) {
+		this(pageNumber, pageSize, null, CountStrategy.EXACT);
+	}
 
 	public long getOffset() {
 		return (long) pageNumber * (long) pageSize;
 	}
 
+	public boolean isKeyset() {
+		return after != null;
+	}
+
+	public Pageable after(Cursor cursor) {
+		return new Pageable(pageNumber, pageSize, cursor, countStrategy);
+	}
+
+	public Pageable withCountStrategy(CountStrategy countStrategy) {
+		return new Pageable(pageNumber, pageSize, after, countStrategy);
+	}
+
 	public static Pageable of(int pageNumber, int pageSize) {
 		return new Pageable(pageNumber, pageSize);
 	}
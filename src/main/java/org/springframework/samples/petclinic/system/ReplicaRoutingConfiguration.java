@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.ExecuteType;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Sends the read-only transactions to a replica of the database with a
+ * {@link ReplicaRoutingDataSource} around the data source, when
+ * <code>petclinic.db.replica.enabled</code> is set. The replica has a connection pool of
+ * its own, read-only, with the credentials of the primary database unless given, and
+ * checked by a thread of its own. It gives up on connecting after a short timeout, so
+ * that read-only transactions go to the primary database soon when the replica is down.
+ * <p>
+ * The routing data source is inside the {@link ConnectionLimiter}, if enabled, so that
+ * the limiter counts the connections to both databases.
+ * </p>
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "petclinic.db.replica.enabled", havingValue = "true")
+class ReplicaRoutingConfiguration {
+
+	@Bean
+	static ReplicaRoutingPostProcessor replicaRoutingPostProcessor(@Value("${petclinic.db.replica.url}") String url,
+			@Value("${petclinic.db.replica.username:${spring.datasource.username:}}") String username,
+			@Value("${petclinic.db.replica.password:${spring.datasource.password:}}") String password,
+			@Value("${petclinic.db.replica.read-your-writes:5s}") Duration readYourWrites,
+			@Value("${petclinic.db.replica.max-lag:2s}") Duration maxLag,
+			@Value("${petclinic.db.replica.lag-query:}") String lagQuery,
+			@Value("${petclinic.db.replica.check-interval:1s}") Duration checkInterval,
+			@Value("${petclinic.db.replica.connection-timeout:1s}") Duration connectionTimeout) {
+		HikariDataSource replica = DataSourceBuilder.create()
+			.type(HikariDataSource.class)
+			.url(url)
+			.username(username)
+			.password(password)
+			.build();
+		replica.setPoolName("replica");
+		replica.setReadOnly(true);
+		replica.setConnectionTimeout(connectionTimeout.toMillis());
+		ExecutorService checker = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replica-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Function<DataSource, ReplicaRoutingDataSource> routing = primary -> new ReplicaRoutingDataSource(primary,
+				replica, readYourWrites, maxLag, lagQuery, checkInterval, checker);
+		return new ReplicaRoutingPostProcessor(routing, replica, checker);
+	}
+
+	/**
+	 * Sends the read-only transactions of the HTTP session to the primary database once
+	 * it wrote.
+	 */
+	@Bean
+	ExecuteListenerProvider replicaWriteListener(DataSource dataSource) throws SQLException {
+		ReplicaRoutingDataSource routing = dataSource.unwrap(ReplicaRoutingDataSource.class);
+		ExecuteListener listener = new ExecuteListener() {
+			@Override
+			public void end(ExecuteContext ctx) {
+				ExecuteType type = ctx.type();
+				if (type == ExecuteType.WRITE || type == ExecuteType.BATCH || type == ExecuteType.DDL) {
+					routing.wrote();
+				}
+			}
+		};
+		return () -> listener;
+	}
+
+	@Bean
+	MeterBinder replicaRoutingMetrics(DataSource dataSource) throws SQLException {
+		ReplicaRoutingDataSource routing = dataSource.unwrap(ReplicaRoutingDataSource.class);
+		return routing::bindTo;
+	}
+
+	/**
+	 * Wraps the data source in the routing data source before any other post-processor,
+	 * and closes the connection pool of the replica and stops its checker with the
+	 * context.
+	 */
+	static final class ReplicaRoutingPostProcessor implements BeanPostProcessor, Ordered, DisposableBean {
+
+		private final Function<DataSource, ReplicaRoutingDataSource> routing;
+
+		private final HikariDataSource replica;
+
+		private final ExecutorService checker;
+
+		ReplicaRoutingPostProcessor(Function<DataSource, ReplicaRoutingDataSource> routing, HikariDataSource replica,
+				ExecutorService checker) {
+			this.routing = routing;
+			this.replica = replica;
+			this.checker = checker;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) {
+			if (bean instanceof DataSource dataSource && !(bean instanceof ReplicaRoutingDataSource)) {
+				return this.routing.apply(dataSource);
+			}
+			return bean;
+		}
+
+		@Override
+		public int getOrder() {
+			return Ordered.HIGHEST_PRECEDENCE;
+		}
+
+		@Override
+		public void destroy() {
+			this.checker.shutdownNow();
+			this.replica.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.lang.Nullable;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.util.WebUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Data source sending the read-only transactions, i.e. the methods annotated with
+ * <code>@Transactional(readOnly = true)</code>, to a replica of the database, and
+ * everything else to the primary database.
+ * <p>
+ * The transactions only get a connection when they run their first statement, from the
+ * {@link LazyConnectionDataSourceProxy} this class extends, by which time the transaction
+ * manager has marked them read-only. The read-only transactions still go to the primary
+ * database:
+ * </p>
+ * <ul>
+ * <li>for a while after a write by the same browser, see {@link #wrote()}, so that users
+ * read their own writes, such as the owner they were just redirected to, even before the
+ * replica has applied them;</li>
+ * <li>while the replica lags behind by more than the maximum lag, as returned by the lag
+ * query, which is run at most once per check interval by the checker, not by the
+ * transaction that finds the last check too old;</li>
+ * <li>while the replica cannot be connected to, until the next check.</li>
+ * </ul>
+ * <p>
+ * The read-only transactions are counted by the database they went to and the reason as
+ * the <code>petclinic.db.replica.transactions</code> counter, and the last lag measured
+ * is published as the <code>petclinic.db.replica.lag</code> gauge.
+ * </p>
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+	private static final String WRITTEN = ReplicaRoutingDataSource.class.getName() + ".written";
+
+	/**
+	 * The cookie telling until when the browser reads from the primary database, in
+	 * milliseconds since the epoch.
+	 */
+	static final String WRITTEN_COOKIE = "petclinic-written";
+
+	/**
+	 * Where a read-only transaction goes, and why.
+	 */
+	enum Route {
+
+		REPLICA, READ_YOUR_WRITES, LAGGING, UNAVAILABLE;
+
+		String tag() {
+			return name().toLowerCase(Locale.ROOT).replace('_', '-');
+		}
+
+	}
+
+	private final DataSource primary;
+
+	private final DataSource replica;
+
+	private final long readYourWritesMillis;
+
+	private final double maxLagSeconds;
+
+	@Nullable
+	private final String lagQuery;
+
+	private final long checkIntervalNanos;
+
+	private final Executor checker;
+
+	private final AtomicLong nextCheck = new AtomicLong(System.nanoTime());
+
+	private final AtomicBoolean checking = new AtomicBoolean();
+
+	private volatile Route replicaRoute = Route.REPLICA;
+
+	private volatile double lagSeconds = Double.NaN;
+
+	private volatile Map<Route, Counter> transactions = Map.of();
+
+	/**
+	 * @param readYourWrites how long the read-only transactions of a browser go to the
+	 * primary database after it wrote
+	 * @param maxLag how far behind the replica can be
+	 * @param lagQuery the query returning how many seconds the replica is behind, or
+	 * <code>null</code> to only check that it can be connected to
+	 * @param checkInterval how often the replica is checked
+	 * @param checker the executor checking the replica
+	 */
+	public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration readYourWrites, Duration maxLag,
+			@Nullable String lagQuery, Duration checkInterval, Executor checker) {
+		super(primary);
+		this.primary = primary;
+		this.replica = replica;
+		this.readYourWritesMillis = readYourWrites.toMillis();
+		this.maxLagSeconds = maxLag.toMillis() / 1000.0;
+		this.lagQuery = (lagQuery != null && !lagQuery.isBlank()) ? lagQuery : null;
+		this.checkIntervalNanos = checkInterval.toNanos();
+		this.checker = checker;
+		setReadOnlyDataSource(new ReadOnlyDataSource());
+	}
+
+	/**
+	 * Register the meters of the routing.
+	 */
+	public void bindTo(MeterRegistry registry) {
+		Map<Route, Counter> transactions = new EnumMap<>(Route.class);
+		for (Route route : Route.values()) {
+			transactions.put(route,
+					Counter.builder("petclinic.db.replica.transactions")
+						.description("Read-only transactions, by the database they went to")
+						.tag("database", (route == Route.REPLICA) ? "replica" : "primary")
+						.tag("reason", route.tag())
+						.register(registry));
+		}
+		this.transactions = transactions;
+		Gauge.builder("petclinic.db.replica.lag", this, ReplicaRoutingDataSource::getLagSeconds)
+			.description("How far behind the replica was when last checked")
+			.baseUnit("seconds")
+			.register(registry);
+	}
+
+	/**
+	 * Return how many seconds the replica was behind when last checked, or
+	 * {@link Double#NaN} if unknown.
+	 */
+	public double getLagSeconds() {
+		return this.lagSeconds;
+	}
+
+	/**
+	 * Send the read-only transactions of the current HTTP request, and of the next ones
+	 * of the same browser, to the primary database for the read-your-writes window.
+	 * Called for each write statement: the end of the window is kept in a cookie that
+	 * expires with it, so that no session is needed.
+	 */
+	public void wrote() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes == null || this.readYourWritesMillis <= 0) {
+			return;
+		}
+		long until = System.currentTimeMillis() + this.readYourWritesMillis;
+		boolean first = attributes.getAttribute(WRITTEN, RequestAttributes.SCOPE_REQUEST) == null;
+		attributes.setAttribute(WRITTEN, until, RequestAttributes.SCOPE_REQUEST);
+		if (first && attributes instanceof ServletRequestAttributes servlet && servlet.getResponse() != null
+				&& !servlet.getResponse().isCommitted()) {
+			Cookie cookie = new Cookie(WRITTEN_COOKIE, Long.toString(until));
+			cookie.setMaxAge((int) Math.ceil(this.readYourWritesMillis / 1000.0));
+			String contextPath = servlet.getRequest().getContextPath();
+			cookie.setPath(contextPath.isEmpty() ? "/" : contextPath);
+			cookie.setHttpOnly(true);
+			servlet.getResponse().addCookie(cookie);
+		}
+	}
+
+	/**
+	 * Return where the next read-only transaction of the current thread goes.
+	 */
+	Route route() {
+		long until = writtenUntil(RequestContextHolder.getRequestAttributes());
+		long millis = System.currentTimeMillis();
+		// a cookie set further than the window is not one of ours
+		if (until > millis && until <= millis + this.readYourWritesMillis) {
+			return Route.READ_YOUR_WRITES;
+		}
+		long now = System.nanoTime();
+		long next = this.nextCheck.get();
+		if (now - next >= 0 && this.nextCheck.compareAndSet(next, now + this.checkIntervalNanos)
+				&& this.checking.compareAndSet(false, true)) {
+			this.checker.execute(() -> {
+				try {
+					check();
+				}
+				finally {
+					this.checking.set(false);
+				}
+			});
+		}
+		return this.replicaRoute;
+	}
+
+	/**
+	 * Return until when the current request reads from the primary database, as set by
+	 * {@link #wrote()} in this request or in the cookie of a previous one, or 0.
+	 */
+	private static long writtenUntil(@Nullable RequestAttributes attributes) {
+		if (attributes == null) {
+			return 0;
+		}
+		if (attributes.getAttribute(WRITTEN, RequestAttributes.SCOPE_REQUEST) instanceof Long until) {
+			return until;
+		}
+		if (attributes instanceof ServletRequestAttributes servlet) {
+			Cookie cookie = WebUtils.getCookie(servlet.getRequest(), WRITTEN_COOKIE);
+			if (cookie != null) {
+				try {
+					return Long.parseLong(cookie.getValue());
+				}
+				catch (NumberFormatException ex) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Connect to the replica and measure its lag, on the checker.
+	 */
+	private void check() {
+		try (Connection connection = this.replica.getConnection()) {
+			if (this.lagQuery == null) {
+				changeRoute(Route.REPLICA, null);
+				return;
+			}
+			try (Statement statement = connection.createStatement();
+					ResultSet result = statement.executeQuery(this.lagQuery)) {
+				double lag = result.next() ? result.getDouble(1) : 0;
+				this.lagSeconds = lag;
+				changeRoute((lag > this.maxLagSeconds) ? Route.LAGGING : Route.REPLICA, null);
+			}
+		}
+		catch (SQLException ex) {
+			changeRoute(Route.UNAVAILABLE, ex);
+		}
+	}
+
+	private void changeRoute(Route route, @Nullable SQLException ex) {
+		Route previous = this.replicaRoute;
+		this.replicaRoute = route;
+		if (route == previous) {
+			return;
+		}
+		switch (route) {
+			case REPLICA -> logger.info("Read-only transactions go to the replica again");
+			case LAGGING -> logger.warn("Replica {} seconds behind, read-only transactions go to the primary database",
+					this.lagSeconds);
+			default -> logger.warn("Replica unavailable, read-only transactions go to the primary database", ex);
+		}
+	}
+
+	private void count(Route route) {
+		Counter counter = this.transactions.get(route);
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * The data source of the read-only transactions: the replica, or the primary database
+	 * when the replica should not be used.
+	 */
+	private final class ReadOnlyDataSource extends DelegatingDataSource {
+
+		ReadOnlyDataSource() {
+			super(ReplicaRoutingDataSource.this.replica);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			Route route = route();
+			if (route == Route.REPLICA) {
+				try {
+					Connection connection = super.getConnection();
+					count(route);
+					return connection;
+				}
+				catch (SQLException ex) {
+					nextCheck.set(System.nanoTime() + checkIntervalNanos);
+					changeRoute(Route.UNAVAILABLE, ex);
+					route = Route.UNAVAILABLE;
+				}
+			}
+			count(route);
+			return primary.getConnection();
+		}
+
+	}
+
+}
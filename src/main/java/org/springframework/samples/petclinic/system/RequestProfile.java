@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+/**
+ * The counters of the request handled by the current thread, accumulated by
+ * {@link RequestProfiler}: the SQL statements and their time, the time spent rendering
+ * the view and the cache lookups.
+ * <p>
+ * Each thread reuses one instance, reset at the start of each request, so that profiling
+ * does not allocate per request, except on virtual threads which are not reused. Work
+ * done on other threads, such as the streaming of exports, is not counted.
+ * </p>
+ */
+public final class RequestProfile {
+
+	private static final ThreadLocal<RequestProfile> CURRENT = ThreadLocal.withInitial(RequestProfile::new);
+
+	private final StringBuilder serverTiming = new StringBuilder(160);
+
+	private boolean active;
+
+	private long start;
+
+	private int statements;
+
+	private long dbNanos;
+
+	private long fetchNanos;
+
+	private long handled;
+
+	private long renderNanos;
+
+	private int cacheHits;
+
+	private int cacheMisses;
+
+	private RequestProfile() {
+	}
+
+	/**
+	 * Return the profile of the current thread.
+	 */
+	public static RequestProfile current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Return a statistics counter for Caffeine caches that also counts the hits and
+	 * misses of the current request.
+	 */
+	public static StatsCounter statsCounter() {
+		return new RequestStatsCounter(new ConcurrentStatsCounter());
+	}
+
+	void start() {
+		this.active = true;
+		this.start = System.nanoTime();
+		this.statements = 0;
+		this.dbNanos = 0;
+		this.fetchNanos = 0;
+		this.handled = 0;
+		this.renderNanos = 0;
+		this.cacheHits = 0;
+		this.cacheMisses = 0;
+	}
+
+	void stop() {
+		this.active = false;
+	}
+
+	/**
+	 * Count a statement executed in the given time, then fetched and mapped in the given
+	 * time.
+	 */
+	void statement(long dbNanos, long fetchNanos) {
+		if (this.active) {
+			this.statements++;
+			this.dbNanos += dbNanos;
+			this.fetchNanos += fetchNanos;
+		}
+	}
+
+	/**
+	 * Mark the end of the handler, and the start of the rendering of its view.
+	 */
+	void handled() {
+		this.handled = System.nanoTime();
+	}
+
+	/**
+	 * Mark the end of the rendering of the view, if any.
+	 */
+	void rendered() {
+		if (this.handled != 0) {
+			this.renderNanos = System.nanoTime() - this.handled;
+		}
+	}
+
+	public int getStatements() {
+		return this.statements;
+	}
+
+	public long getDbNanos() {
+		return this.dbNanos;
+	}
+
+	public long getFetchNanos() {
+		return this.fetchNanos;
+	}
+
+	public long getRenderNanos() {
+		return this.renderNanos;
+	}
+
+	public int getCacheHits() {
+		return this.cacheHits;
+	}
+
+	public int getCacheMisses() {
+		return this.cacheMisses;
+	}
+
+	/**
+	 * Return the value of the <code>Server-Timing</code> header for the request so far.
+	 * The builder is reused by the next call.
+	 * @param total whether the request is complete, so that its rendering and total time
+	 * are known
+	 */
+	CharSequence serverTiming(boolean total) {
+		StringBuilder timing = this.serverTiming;
+		timing.setLength(0);
+		timing.append("db;dur=");
+		millis(timing, this.dbNanos).append(";desc=\"").append(this.statements).append(" statements\"");
+		timing.append(", fetch;dur=");
+		millis(timing, this.fetchNanos);
+		timing.append(", cache;desc=\"").append(this.cacheHits).append(" hits, ");
+		timing.append(this.cacheMisses).append(" misses\"");
+		if (total) {
+			timing.append(", render;dur=");
+			millis(timing, this.renderNanos);
+			timing.append(", total;dur=");
+			millis(timing, System.nanoTime() - this.start);
+		}
+		return timing;
+	}
+
+	/**
+	 * Append the given duration in milliseconds, with one decimal.
+	 */
+	private static StringBuilder millis(StringBuilder builder, long nanos) {
+		long tenths = nanos / 100_000;
+		return builder.append(tenths / 10).append('.').append(tenths % 10);
+	}
+
+	/**
+	 * Counts the hits and misses of a cache in the profile of the current request,
+	 * besides the statistics of the cache.
+	 */
+	private static final class RequestStatsCounter implements StatsCounter {
+
+		private final StatsCounter delegate;
+
+		RequestStatsCounter(StatsCounter delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void recordHits(int count) {
+			this.delegate.recordHits(count);
+			RequestProfile profile = CURRENT.get();
+			if (profile.active) {
+				profile.cacheHits += count;
+			}
+		}
+
+		@Override
+		public void recordMisses(int count) {
+			this.delegate.recordMisses(count);
+			RequestProfile profile = CURRENT.get();
+			if (profile.active) {
+				profile.cacheMisses += count;
+			}
+		}
+
+		@Override
+		public void recordLoadSuccess(long loadTime) {
+			this.delegate.recordLoadSuccess(loadTime);
+		}
+
+		@Override
+		public void recordLoadFailure(long loadTime) {
+			this.delegate.recordLoadFailure(loadTime);
+		}
+
+		@Override
+		public void recordEviction(int weight, RemovalCause cause) {
+			this.delegate.recordEviction(weight, cause);
+		}
+
+		@Override
+		public CacheStats snapshot() {
+			return this.delegate.snapshot();
+		}
+
+	}
+
+}
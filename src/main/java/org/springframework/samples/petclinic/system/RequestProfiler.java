@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.io.IOException;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Profiler of the requests: counts the SQL statements of each request with their
+ * execution time and the time to fetch and map their rows, the cache hits and misses, and
+ * the time to render the view, in the {@link RequestProfile} of the thread.
+ * <p>
+ * The counters are sent as a <code>Server-Timing</code> header, so that they show in the
+ * network panel of the browser, and logged with the total time of the request. The header
+ * is set before the view is rendered, and set again with the rendering time once it is
+ * rendered if the response is not committed yet, i.e. if the page fits in the response
+ * buffer.
+ * </p>
+ * <p>
+ * The statements are timed by the jOOQ listener of this {@link ExecuteListenerProvider},
+ * the rendering by this {@link HandlerInterceptor}, registered by
+ * {@link WebConfiguration}, and the cache lookups by the statistics counter of the
+ * caches, see {@link RequestProfile#statsCounter()}.
+ * </p>
+ */
+@Component
+public class RequestProfiler extends OncePerRequestFilter implements HandlerInterceptor, ExecuteListenerProvider {
+
+	static final String SERVER_TIMING = "Server-Timing";
+
+	private static final Logger logger = LoggerFactory.getLogger(RequestProfiler.class);
+
+	private final boolean enabled;
+
+	private final ExecuteListener listener = new Listener();
+
+	/**
+	 * @param enabled whether requests are profiled
+	 */
+	public RequestProfiler(@Value("${petclinic.profiler.enabled:true}") boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public ExecuteListener provide() {
+		return this.listener;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !this.enabled;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		RequestProfile profile = RequestProfile.current();
+		profile.start();
+		try {
+			chain.doFilter(request, response);
+		}
+		finally {
+			profile.stop();
+			CharSequence timing = profile.serverTiming(true);
+			if (!response.isCommitted()) {
+				response.setHeader(SERVER_TIMING, timing.toString());
+			}
+			if (logger.isInfoEnabled()) {
+				logger.info("{} {} {} {}", request.getMethod(), request.getRequestURI(), response.getStatus(), timing);
+			}
+		}
+	}
+
+	@Override
+	public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+			@Nullable ModelAndView modelAndView) {
+		RequestProfile profile = RequestProfile.current();
+		profile.handled();
+		if (this.enabled && !response.isCommitted()) {
+			response.setHeader(SERVER_TIMING, profile.serverTiming(false).toString());
+		}
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			@Nullable Exception ex) {
+		RequestProfile.current().rendered();
+	}
+
+	/**
+	 * Times the statements, keeping their start in their context since the listener is
+	 * shared.
+	 */
+	private static final class Listener implements ExecuteListener {
+
+		private static final String START = RequestProfiler.class.getName() + ".start";
+
+		private static final String EXECUTED = RequestProfiler.class.getName() + ".executed";
+
+		@Override
+		public void executeStart(ExecuteContext ctx) {
+			ctx.data(START, System.nanoTime());
+		}
+
+		@Override
+		public void executeEnd(ExecuteContext ctx) {
+			ctx.data(EXECUTED, System.nanoTime());
+		}
+
+		@Override
+		public void end(ExecuteContext ctx) {
+			if (ctx.data(START) instanceof Long start) {
+				long end = System.nanoTime();
+				long executed = (ctx.data(EXECUTED) instanceof Long time) ? time : end;
+				RequestProfile.current().statement(executed - start, end - executed);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.impl.DataSourceConnectionProvider;
+import org.jooq.impl.DefaultTransactionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import static org.jooq.generated.Tables.OWNERS;
+import static org.jooq.generated.Tables.PETS;
+import static org.jooq.generated.Tables.SPECIALTIES;
+import static org.jooq.generated.Tables.TYPES;
+import static org.jooq.generated.Tables.VETS;
+import static org.jooq.generated.Tables.VET_SPECIALTIES;
+import static org.jooq.generated.Tables.VISITS;
+import static org.jooq.impl.DSL.select;
+
+/**
+ * Router of the owners, with their pets and visits, to the database holding them, when
+ * they are partitioned by owner id across several databases, the shards.
+ * <p>
+ * The first shard is the database of the application, whose {@link DSLContext} takes part
+ * in the Spring transactions. The others are given by <code>petclinic.shards.urls</code>,
+ * each with a connection pool of its own. An owner is held by the shard of index
+ * <code>id mod n</code> with its pets and their visits, and the reference tables (pet
+ * types, vets and specialties) are copied from the first shard to the others at startup,
+ * so that each shard can join them. The ids are still allocated from the sequences of the
+ * first shard by the {@link IdAllocator}, so they are unique across the shards.
+ * </p>
+ * <p>
+ * The copies of the reference tables are not refreshed: the application never writes
+ * them, and the rows added to the first shard by other means only reach the others when
+ * the application restarts. Until then, the queries joining them on the other shards miss
+ * the owners, pets and visits that refer to the new rows.
+ * </p>
+ * <p>
+ * The statements on the other shards do not take part in the transaction of the caller:
+ * they commit on their own, unless run in a transaction of their shard with
+ * {@link #inTransaction(int, Consumer)}. {@link #scatter(Function)} queries all the
+ * shards in parallel on the application task executor, except the first shard which is
+ * queried on the calling thread, in its transaction. It waits for every shard even when
+ * one fails, so that no query is left running with a connection after the caller failed.
+ * </p>
+ * <p>
+ * With <code>petclinic.shards.initialize</code>, meant for embedded databases, the other
+ * shards are created with the schema and data scripts of the application, then each shard
+ * deletes the owners, pets and visits of the others. Without other shards, everything
+ * goes to the database of the application.
+ * </p>
+ */
+@Component
+public class ShardRouter implements InitializingBean, DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+	private final List<DSLContext> shards = new ArrayList<>();
+
+	private final List<HikariDataSource> pools = new ArrayList<>();
+
+	private final Executor executor;
+
+	private final boolean initialize;
+
+	private final String[] scriptLocations;
+
+	/**
+	 * @param urls the JDBC URLs of the shards after the first one
+	 * @param initialize whether the shards are created by the scripts of the application
+	 * and keep their own owners only
+	 * @param schemaLocations the schema scripts of the application
+	 * @param dataLocations the data scripts of the application
+	 */
+	public ShardRouter(DSLContext dsl,
+			@Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor,
+			@Value("${petclinic.shards.urls:}") String[] urls,
+			@Value("${petclinic.shards.username:${spring.datasource.username:}}") String username,
+			@Value("${petclinic.shards.password:${spring.datasource.password:}}") String password,
+			@Value("${petclinic.shards.initialize:false}") boolean initialize,
+			@Value("${spring.sql.init.schema-locations:}") String[] schemaLocations,
+			@Value("${spring.sql.init.data-locations:}") String[] dataLocations) {
+		this.executor = executor;
+		this.initialize = initialize;
+		this.scriptLocations = new String[schemaLocations.length + dataLocations.length];
+		System.arraycopy(schemaLocations, 0, this.scriptLocations, 0, schemaLocations.length);
+		System.arraycopy(dataLocations, 0, this.scriptLocations, schemaLocations.length, dataLocations.length);
+		this.shards.add(dsl);
+		for (String url : urls) {
+			HikariDataSource pool = DataSourceBuilder.create()
+				.type(HikariDataSource.class)
+				.url(url.strip())
+				.username(username)
+				.password(password)
+				.build();
+			pool.setPoolName("shard-" + this.shards.size());
+			this.pools.add(pool);
+			DataSourceConnectionProvider connections = new DataSourceConnectionProvider(pool);
+			this.shards
+				.add(dsl.configuration().derive(connections).derive(new DefaultTransactionProvider(connections)).dsl());
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (size() == 1) {
+			return;
+		}
+		if (this.initialize) {
+			ResourceDatabasePopulator scripts = new ResourceDatabasePopulator(scripts());
+			this.pools.forEach(scripts::execute);
+			for (int i = 0; i < size(); i++) {
+				keepOwnOwners(i);
+			}
+		}
+		for (int i = 1; i < size(); i++) {
+			copyReferenceTables(shard(i));
+		}
+		logger.info("Owners partitioned across {} shards", size());
+	}
+
+	@Override
+	public void destroy() {
+		this.pools.forEach(HikariDataSource::close);
+	}
+
+	/**
+	 * Return the number of shards.
+	 */
+	public int size() {
+		return this.shards.size();
+	}
+
+	/**
+	 * Return the shard of the given index.
+	 */
+	public DSLContext shard(int index) {
+		return this.shards.get(index);
+	}
+
+	/**
+	 * Return the first shard, the database of the application, which also holds the
+	 * reference tables and the sequences.
+	 */
+	public DSLContext main() {
+		return this.shards.get(0);
+	}
+
+	/**
+	 * Return the index of the shard holding the owner with the given id.
+	 */
+	public int shardOf(int ownerId) {
+		return Math.floorMod(ownerId, size());
+	}
+
+	/**
+	 * Return the shard holding the owner with the given id, its pets and their visits.
+	 */
+	public DSLContext forOwner(int ownerId) {
+		return shard(shardOf(ownerId));
+	}
+
+	/**
+	 * Run the given query on every shard, in parallel if there are several.
+	 * @return the results of the shards, in the order of the shards
+	 */
+	public <T> List<T> scatter(Function<DSLContext, T> query) {
+		if (size() == 1) {
+			return Collections.singletonList(query.apply(main()));
+		}
+		List<CompletableFuture<T>> others = new ArrayList<>(size() - 1);
+		for (int i = 1; i < size(); i++) {
+			DSLContext shard = shard(i);
+			Supplier<T> task = SqlStatistics.attributed(() -> query.apply(shard));
+			others.add(CompletableFuture.supplyAsync(task, this.executor));
+		}
+		List<T> results = new ArrayList<>(size());
+		RuntimeException failure = null;
+		try {
+			results.add(query.apply(main()));
+		}
+		catch (RuntimeException ex) {
+			failure = ex;
+		}
+		for (CompletableFuture<T> other : others) {
+			try {
+				results.add(other.join());
+			}
+			catch (CompletionException ex) {
+				RuntimeException cause = (ex.getCause() instanceof RuntimeException runtime) ? runtime : ex;
+				if (failure == null) {
+					failure = cause;
+				}
+				else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}
+
+	/**
+	 * Run the given action in a transaction of the shard of the given index. The
+	 * statements on the first shard take part in the Spring transaction of the caller
+	 * instead, if any.
+	 */
+	public void inTransaction(int index, Consumer<DSLContext> action) {
+		if (index == 0) {
+			action.accept(main());
+		}
+		else {
+			shard(index).transaction(trx -> action.accept(trx.dsl()));
+		}
+	}
+
+	/**
+	 * Run the given action in a transaction of the shard of the given index, as
+	 * {@link #inTransaction(int, Consumer)} does, and return its result.
+	 */
+	public <T> T inTransactionResult(int index, Function<DSLContext, T> action) {
+		if (index == 0) {
+			return action.apply(main());
+		}
+		return shard(index).transactionResult(trx -> action.apply(trx.dsl()));
+	}
+
+	private Resource[] scripts() {
+		ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+		List<Resource> resources = new ArrayList<>();
+		try {
+			for (String location : this.scriptLocations) {
+				resources.addAll(List.of(resolver.getResources(location)));
+			}
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return resources.toArray(Resource[]::new);
+	}
+
+	/**
+	 * Delete the owners, pets and visits that the shard of the given index does not hold.
+	 */
+	private void keepOwnOwners(int index) {
+		DSLContext shard = shard(index);
+		int n = size();
+		shard.deleteFrom(VISITS)
+			.where(VISITS.PET_ID.in(select(PETS.ID).from(PETS).where(PETS.OWNER_ID.mod(n).ne(index))))
+			.execute();
+		shard.deleteFrom(PETS).where(PETS.OWNER_ID.mod(n).ne(index)).execute();
+		shard.deleteFrom(OWNERS).where(OWNERS.ID.mod(n).ne(index)).execute();
+	}
+
+	/**
+	 * Copy the reference tables of the first shard to the given one, inserting the rows
+	 * it does not have and updating the others.
+	 */
+	private void copyReferenceTables(DSLContext shard) {
+		DSLContext main = main();
+		Result<? extends Record> vetSpecialties = main.selectFrom(VET_SPECIALTIES).fetch();
+		shard.transaction(trx -> {
+			DSLContext dsl = trx.dsl();
+			upsert(dsl, SPECIALTIES, main.selectFrom(SPECIALTIES).fetch());
+			upsert(dsl, VETS, main.selectFrom(VETS).fetch());
+			upsert(dsl, TYPES, main.selectFrom(TYPES).fetch());
+			dsl.deleteFrom(VET_SPECIALTIES).execute();
+			if (!vetSpecialties.isEmpty()) {
+				vetSpecialties.forEach(row -> row.changed(true));
+				dsl.batch(vetSpecialties.stream().map(row -> dsl.insertInto(VET_SPECIALTIES).set(row)).toList())
+					.execute();
+			}
+		});
+	}
+
+	private static <R extends Record> void upsert(DSLContext dsl, Table<R> table, Result<R> rows) {
+		if (!rows.isEmpty()) {
+			rows.forEach(row -> row.changed(true));
+			dsl.batch(rows.stream().map(row -> dsl.insertInto(table).set(row).onDuplicateKeyUpdate().set(row)).toList())
+				.execute();
+		}
+	}
+
+}
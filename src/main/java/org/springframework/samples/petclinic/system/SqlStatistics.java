@@ -0,0 +1,331 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.ExecuteType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Statistics of the SQL statements executed by jOOQ, by the method of the application
+ * that executed them, like an in-app <code>pg_stat_statements</code>.
+ * <p>
+ * As an {@link ExecuteListenerProvider} bean, it is registered on the
+ * <code>DSLContext</code> of Spring Boot. Each execution is timed from the start of the
+ * statement to the end of its fetch, and attributed to the innermost method of a class of
+ * the application on the stack, such as
+ * <code>OwnerRepository.findByIdWithPetsAndVisits</code> (a stack walk per statement, not
+ * per row). The classes of this package, such as {@link ShardRouter} and
+ * {@link JooqHelper}, are skipped, and the statements that
+ * {@link ShardRouter#scatter(java.util.function.Function)} runs on other threads are
+ * attributed to the method that called it. The fetched rows are counted, or the rows
+ * updated by the other statements.
+ * </p>
+ * <p>
+ * The timings are published as the <code>petclinic.sql</code> timer, tagged with the
+ * method and the type of statement, with a percentile histogram, and the rows as the
+ * <code>petclinic.sql.rows</code> distribution summary. The calls, time and rows are also
+ * summed by method and statement fingerprint, the SQL with its lists of bind variables
+ * and of rows collapsed, for the <code>sqlstats</code> actuator endpoint. Up to the
+ * maximum number of statements are tracked, the others are summed together.
+ * </p>
+ */
+@Component
+public class SqlStatistics implements ExecuteListenerProvider {
+
+	private static final String APPLICATION_PACKAGE = "org.springframework.samples.petclinic.";
+
+	private static final String SYSTEM_PACKAGE = SqlStatistics.class.getPackageName() + ".";
+
+	/**
+	 * The method of the application that submitted the task running on the current
+	 * thread, if any.
+	 */
+	private static final ThreadLocal<String> SUBMITTER = new ThreadLocal<>();
+
+	private static final Pattern BIND_LIST = Pattern.compile("\\?(?:, \\?)+");
+
+	private static final Pattern ROW_LIST = Pattern.compile("(\\(\\?(?:, \\.\\.\\.)?\\))(?:, \\1)+");
+
+	private static final Key OTHER = new Key("(other)", "(other statements)");
+
+	/**
+	 * The statistics of the statements executed by a method.
+	 *
+	 * @param method the class and method that executed the statement
+	 * @param sql the fingerprint of the statement
+	 * @param calls the number of executions
+	 * @param totalMillis the total time of the executions
+	 * @param meanMillis the mean time of an execution
+	 * @param maxMillis the longest execution
+	 * @param rows the number of rows fetched or updated
+	 */
+	public record Statement(String method, String sql, long calls, double totalMillis, double meanMillis,
+			double maxMillis, long rows) {
+	}
+
+	private record Key(String method, String sql) {
+	}
+
+	private final MeterRegistry meterRegistry;
+
+	private final int maxStatements;
+
+	private final ExecuteListener listener = new Listener();
+
+	private final Map<Key, Counters> statements = new ConcurrentHashMap<>();
+
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private final Map<String, DistributionSummary> rowSummaries = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxStatements the maximum number of statements with statistics of their own
+	 */
+	public SqlStatistics(MeterRegistry meterRegistry,
+			@Value("${petclinic.sql.stats.max-statements:500}") int maxStatements) {
+		this.meterRegistry = meterRegistry;
+		this.maxStatements = maxStatements;
+	}
+
+	@Override
+	public ExecuteListener provide() {
+		return this.listener;
+	}
+
+	/**
+	 * Return the statements that took the most time in total, slowest first.
+	 * @param limit the maximum number of statements
+	 */
+	public List<Statement> top(int limit) {
+		return this.statements.entrySet()
+			.stream()
+			.map(entry -> entry.getValue().toStatement(entry.getKey()))
+			.sorted(Comparator.comparingDouble(Statement::totalMillis).reversed())
+			.limit(limit)
+			.toList();
+	}
+
+	/**
+	 * Forget the statistics of the statements, but not the meters.
+	 */
+	public void reset() {
+		this.statements.clear();
+	}
+
+	private void record(String method, String type, String sql, long nanos, long rows) {
+		this.timers
+			.computeIfAbsent(method + ' ' + type,
+					key -> Timer.builder("petclinic.sql")
+						.description("Executions of SQL statements, fetch included")
+						.tag("method", method)
+						.tag("type", type)
+						.publishPercentileHistogram()
+						.register(this.meterRegistry))
+			.record(nanos, TimeUnit.NANOSECONDS);
+		this.rowSummaries
+			.computeIfAbsent(method,
+					key -> DistributionSummary.builder("petclinic.sql.rows")
+						.description("Rows fetched or updated by SQL statements")
+						.baseUnit("rows")
+						.tag("method", method)
+						.register(this.meterRegistry))
+			.record(rows);
+		if (sql != null) {
+			Key key = new Key(method, fingerprint(sql));
+			Counters counters = this.statements.get(key);
+			if (counters == null) {
+				counters = (this.statements.size() < this.maxStatements)
+						? this.statements.computeIfAbsent(key, k -> new Counters())
+						: this.statements.computeIfAbsent(OTHER, k -> new Counters());
+			}
+			counters.add(nanos, rows);
+		}
+	}
+
+	/**
+	 * Return the given SQL with its lists of bind variables, such as the values of an
+	 * <code>IN</code> list, and its lists of rows of bind variables collapsed, so that
+	 * the statements differing only by their lengths have the same fingerprint.
+	 */
+	static String fingerprint(String sql) {
+		String collapsed = BIND_LIST.matcher(sql).replaceAll("?, ...");
+		return ROW_LIST.matcher(collapsed).replaceAll("$1, ...");
+	}
+
+	/**
+	 * Return the given task, to run on another thread, attributing the statements it
+	 * executes to the method of the application submitting it when that thread has none
+	 * on its stack.
+	 */
+	static <T> Supplier<T> attributed(Supplier<T> task) {
+		String caller = caller();
+		return () -> {
+			String previous = SUBMITTER.get();
+			SUBMITTER.set(caller);
+			try {
+				return task.get();
+			}
+			finally {
+				if (previous != null) {
+					SUBMITTER.set(previous);
+				}
+				else {
+					SUBMITTER.remove();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Return the innermost method of the application on the stack, outside of this
+	 * package, as the simple name of its class and its name, or else the method that
+	 * submitted the task running on the current thread.
+	 */
+	private static String caller() {
+		return StackWalker.getInstance()
+			.walk(frames -> frames
+				.filter(frame -> frame.getClassName().startsWith(APPLICATION_PACKAGE)
+						&& !frame.getClassName().startsWith(SYSTEM_PACKAGE))
+				.findFirst())
+			.map(frame -> simpleName(frame.getClassName()) + '.' + methodName(frame.getMethodName()))
+			.orElseGet(() -> Objects.requireNonNullElse(SUBMITTER.get(), "(unknown)"));
+	}
+
+	private static String simpleName(String className) {
+		String name = className.substring(className.lastIndexOf('.') + 1);
+		int proxy = name.indexOf("$$");
+		return (proxy >= 0) ? name.substring(0, proxy) : name;
+	}
+
+	/**
+	 * Return the name of the method declaring the given one if it is a lambda, such as
+	 * <code>findAll</code> for <code>lambda$findAll$0</code>.
+	 */
+	private static String methodName(String name) {
+		if (name.startsWith("lambda$")) {
+			int end = name.indexOf('$', 7);
+			return name.substring(7, (end > 7) ? end : name.length());
+		}
+		return name;
+	}
+
+	/**
+	 * The sums of the executions of a statement.
+	 */
+	private static final class Counters {
+
+		private final LongAdder calls = new LongAdder();
+
+		private final LongAdder nanos = new LongAdder();
+
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		private final LongAdder rows = new LongAdder();
+
+		void add(long nanos, long rows) {
+			this.calls.increment();
+			this.nanos.add(nanos);
+			this.maxNanos.accumulate(nanos);
+			this.rows.add(rows);
+		}
+
+		Statement toStatement(Key key) {
+			long calls = this.calls.sum();
+			double totalMillis = this.nanos.sum() / 1e6;
+			return new Statement(key.method(), key.sql(), calls, totalMillis, (calls > 0) ? totalMillis / calls : 0,
+					this.maxNanos.get() / 1e6, this.rows.sum());
+		}
+
+	}
+
+	/**
+	 * The state of an execution, kept in its context since the listener is shared.
+	 */
+	private static final class Execution {
+
+		private final String method = caller();
+
+		private final long start = System.nanoTime();
+
+		private long rows;
+
+	}
+
+	private final class Listener implements ExecuteListener {
+
+		@Override
+		public void executeStart(ExecuteContext ctx) {
+			ctx.data(Execution.class, new Execution());
+		}
+
+		@Override
+		public void recordEnd(ExecuteContext ctx) {
+			if (ctx.data(Execution.class) instanceof Execution execution) {
+				execution.rows++;
+			}
+		}
+
+		@Override
+		public void end(ExecuteContext ctx) {
+			if (!(ctx.data(Execution.class) instanceof Execution execution)) {
+				return;
+			}
+			long nanos = System.nanoTime() - execution.start;
+			long rows = execution.rows;
+			String sql = ctx.sql();
+			if (ctx.type() == ExecuteType.BATCH) {
+				rows = sum(ctx.batchRows());
+				if (sql == null && ctx.batchSQL().length > 0) {
+					sql = ctx.batchSQL()[0];
+				}
+			}
+			else if (rows == 0) {
+				rows = Math.max(ctx.rows(), 0);
+			}
+			record(execution.method, ctx.type().name().toLowerCase(Locale.ROOT), sql, nanos, rows);
+		}
+
+		private static long sum(int[] values) {
+			long sum = 0;
+			for (int value : values) {
+				sum += Math.max(value, 0);
+			}
+			return sum;
+		}
+
+	}
+
+}
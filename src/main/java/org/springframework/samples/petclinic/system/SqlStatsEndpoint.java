@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.samples.petclinic.system.SqlStatistics.Statement;
+import org.springframework.stereotype.Component;
+
+/**
+ * The <code>sqlstats</code> actuator endpoint: the SQL statements that took the most time
+ * in total, from {@link SqlStatistics}. <code>GET /actuator/sqlstats?limit=n</code> lists
+ * the top ones, 20 by default, and <code>DELETE</code> resets the statistics.
+ */
+@Component
+@Endpoint(id = "sqlstats")
+public class SqlStatsEndpoint {
+
+	private static final int DEFAULT_LIMIT = 20;
+
+	private final SqlStatistics statistics;
+
+	public SqlStatsEndpoint(SqlStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	@ReadOperation
+	public List<Statement> statements(@Nullable Integer limit) {
+		return this.statistics.top((limit != null) ? limit : DEFAULT_LIMIT);
+	}
+
+	@DeleteOperation
+	public void reset() {
+		this.statistics.reset();
+	}
+
+}
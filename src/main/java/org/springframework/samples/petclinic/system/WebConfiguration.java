@@ -24,6 +24,12 @@ import java.util.Locale;
 @SuppressWarnings("unused")
 public class WebConfiguration implements WebMvcConfigurer {
 
+	private final RequestProfiler requestProfiler;
+
+	public WebConfiguration(RequestProfiler requestProfiler) {
+		this.requestProfiler = requestProfiler;
+	}
+
 	/**
 	 * Uses session storage to remember the user’s language setting across requests.
 	 * Defaults to English if nothing is specified.
@@ -49,12 +55,14 @@ public class WebConfiguration implements WebMvcConfigurer {
 	}
 
 	/**
-	 * Registers the locale change interceptor so it can run on each request.
+	 * Registers the locale change interceptor so it can run on each request, and the
+	 * request profiler so it can time the rendering of views.
 	 * @param registry where interceptors are added
 	 */
 	@Override
 	public void addInterceptors(InterceptorRegistry registry) {
 		registry.addInterceptor(localeChangeInterceptor());
+		registry.addInterceptor(this.requestProfiler);
 	}
 
 }
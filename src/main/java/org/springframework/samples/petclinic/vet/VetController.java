@@ -15,15 +15,30 @@
  */
 package org.springframework.samples.petclinic.vet;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.system.Cursor;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * @author Juergen Hoeller
@@ -36,15 +51,30 @@ class VetController {
 
 	private final VetRepository vetRepository;
 
-	public VetController(VetRepository vetRepository) {
+	private final VetsResponseCache vetsResponses;
+
+	private final VetIndex vetIndex;
+
+	private final ContentNegotiationManager contentNegotiationManager;
+
+	private final CacheControl cacheControl;
+
+	public VetController(VetRepository vetRepository, VetsResponseCache vetsResponses, VetIndex vetIndex,
+			ContentNegotiationManager contentNegotiationManager,
+			@Value("${petclinic.vets.max-age:60s}") Duration maxAge) {
 		this.vetRepository = vetRepository;
+		this.vetsResponses = vetsResponses;
+		this.vetIndex = vetIndex;
+		this.contentNegotiationManager = contentNegotiationManager;
+		this.cacheControl = CacheControl.maxAge(maxAge).cachePublic();
 	}
 
 	@GetMapping("/vets.html")
-	public String showVetList(@RequestParam(defaultValue = "1") int page, Model model) {
+	public String showVetList(@RequestParam(defaultValue = "1") int page, @RequestParam(required = false) String cursor,
+			Model model) {
 		// Here we are returning an object of type 'Vets' rather than a collection of Vet
 		// objects so it is simpler for Object-Xml mapping
-		Page<Vet> paginated = findPaginated(page);
+		Page<Vet> paginated = findPaginated(page, cursor);
 		return addPaginationModel(page, paginated, model);
 	}
 
@@ -53,21 +83,103 @@ class VetController {
 		model.addAttribute("currentPage", page);
 		model.addAttribute("totalPages", paginated.getTotalPages());
 		model.addAttribute("totalItems", paginated.getTotalElements());
+		model.addAttribute("nextCursor", paginated.getNextCursor());
 		model.addAttribute("listVets", listVets);
 		return "vets/vetList";
 	}
 
-	private Page<Vet> findPaginated(int page) {
+	private Page<Vet> findPaginated(int page, String cursor) {
 		int pageSize = 5;
 		Pageable pageable = Pageable.of(page - 1, pageSize);
+		if (StringUtils.hasText(cursor)) {
+			try {
+				pageable = pageable.after(Cursor.decode(cursor, 1));
+			}
+			catch (IllegalArgumentException ex) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+			}
+		}
 		return vetRepository.findAll(pageable);
 	}
 
+	/**
+	 * Return the vets, or only those with the given specialties (any of them, or all of
+	 * them when <code>match=all</code>) whose last name starts with the given name.
+	 */
 	@GetMapping({ "/vets" })
-	public @ResponseBody Vets showResourcesVetList() {
-		// Here we are returning an object of type 'Vets' rather than a collection of Vet
-		// objects so it is simpler for JSon/Object mapping
-		return new Vets(this.vetRepository.findAll());
+	public ResponseEntity<?> showResourcesVetList(@RequestParam(required = false) List<String> specialty,
+			@RequestParam(required = false) String name, @RequestParam(defaultValue = "any") String match,
+			ServletWebRequest request) throws HttpMediaTypeNotAcceptableException {
+		if (!CollectionUtils.isEmpty(specialty) || StringUtils.hasLength(name)) {
+			boolean all = switch (match.toLowerCase(Locale.ROOT)) {
+				case "any" -> false;
+				case "all" -> true;
+				default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+						"Unknown match: " + match + ", expected any or all");
+			};
+			List<String> specialties = specialty != null ? specialty : List.of();
+			return ResponseEntity.ok(new Vets(this.vetIndex.search(specialties, all, name)));
+		}
+		// Here we are returning the bytes of an object of type 'Vets', encoded once for
+		// each media type, rather than serializing the vets again on every request
+		VetsResponseCache.Representation vets = this.vetsResponses
+			.get(this.contentNegotiationManager.resolveMediaTypes(request));
+		boolean gzip = vets.gzipped() != null && acceptsGzip(request);
+		HttpServletResponse response = request.getResponse();
+		response.setHeader(HttpHeaders.CACHE_CONTROL, this.cacheControl.getHeaderValue());
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+		if (request.checkNotModified(gzip ? vets.gzippedEtag() : vets.etag())) {
+			return null;
+		}
+		if (gzip) {
+			return ResponseEntity.ok()
+				.contentType(vets.contentType())
+				.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.body(vets.gzipped());
+		}
+		return ResponseEntity.ok().contentType(vets.contentType()).body(vets.body());
+	}
+
+	/**
+	 * Whether the Accept-Encoding header accepts gzip: named with a non-zero quality, or
+	 * not named and covered by a <code>*</code> with a non-zero quality.
+	 */
+	private static boolean acceptsGzip(ServletWebRequest request) {
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Boolean wildcard = null;
+		for (String coding : StringUtils.tokenizeToStringArray(acceptEncoding, ",")) {
+			String[] parts = StringUtils.tokenizeToStringArray(coding, ";");
+			if (parts.length == 0) {
+				continue;
+			}
+			String name = parts[0].toLowerCase(Locale.ROOT);
+			boolean accepted = quality(parts) > 0;
+			if (name.equals("gzip") || name.equals("x-gzip")) {
+				return accepted;
+			}
+			if (name.equals("*")) {
+				wildcard = accepted;
+			}
+		}
+		return Boolean.TRUE.equals(wildcard);
+	}
+
+	private static double quality(String[] parts) {
+		for (int i = 1; i < parts.length; i++) {
+			String parameter = parts[i].replace(" ", "");
+			if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+				try {
+					return Double.parseDouble(parameter.substring(2));
+				}
+				catch (NumberFormatException ex) {
+					return 0;
+				}
+			}
+		}
+		return 1;
 	}
 
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vet;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * In-memory index of the vets by specialty, to search them by specialties and last name.
+ * <p>
+ * The specialties of each vet are a {@link BitSet} over the specialty ids, so that a
+ * search for any of the given specialties is a word-level intersection test and a search
+ * for all of them a word-level difference, instead of scans of the specialty sets. The
+ * index is built in the background from {@link VetRepository#findAll()}, by the task
+ * executor of the application (on virtual threads when they are enabled), and again once
+ * older than the refresh interval while the previous one is still used. Until it is
+ * built, searches are answered by
+ * {@link VetRepository#findBySpecialtiesAndLastName(Collection, boolean, String)}.
+ * </p>
+ */
+@Component
+class VetIndex {
+
+	private record Snapshot(List<Vet> vets, BitSet[] specialties, Map<String, Integer> specialtyIds, long loadedAt) {
+
+		static Snapshot of(List<Vet> vets, long loadedAt) {
+			BitSet[] specialties = new BitSet[vets.size()];
+			Map<String, Integer> specialtyIds = new HashMap<>();
+			for (int i = 0; i < specialties.length; i++) {
+				specialties[i] = new BitSet();
+				for (Specialty specialty : vets.get(i).specialties()) {
+					specialties[i].set(specialty.id());
+					specialtyIds.put(specialty.name(), specialty.id());
+				}
+			}
+			return new Snapshot(vets, specialties, specialtyIds, loadedAt);
+		}
+
+		List<Vet> search(Collection<String> names, boolean all, String lastName) {
+			BitSet query = new BitSet();
+			for (String name : names) {
+				Integer id = this.specialtyIds.get(name);
+				if (id != null) {
+					query.set(id);
+				}
+				else if (all) {
+					return List.of();
+				}
+			}
+			if (!names.isEmpty() && query.isEmpty()) {
+				return List.of();
+			}
+			BitSet missing = new BitSet();
+			List<Vet> found = new ArrayList<>();
+			for (int i = 0; i < this.specialties.length; i++) {
+				Vet vet = this.vets.get(i);
+				if (StringUtils.hasLength(lastName)
+						&& !vet.lastName().regionMatches(true, 0, lastName, 0, lastName.length())) {
+					continue;
+				}
+				if (all) {
+					missing.clear();
+					missing.or(query);
+					missing.andNot(this.specialties[i]);
+					if (!missing.isEmpty()) {
+						continue;
+					}
+				}
+				else if (!query.isEmpty() && !query.intersects(this.specialties[i])) {
+					continue;
+				}
+				found.add(vet);
+			}
+			return found;
+		}
+
+	}
+
+	private final VetRepository vetRepository;
+
+	private final long refreshInterval;
+
+	private final Executor executor;
+
+	private final LongSupplier nanoTime;
+
+	private final AtomicBoolean loading = new AtomicBoolean();
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @param refreshInterval how long the index is used before being built again, or zero
+	 * to keep it
+	 * @param executor the executor building the index
+	 */
+	@Autowired
+	VetIndex(VetRepository vetRepository,
+			@Value("${petclinic.vets.index.refresh-interval:10m}") Duration refreshInterval,
+			@Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+		this(vetRepository, refreshInterval, executor, System::nanoTime);
+	}
+
+	VetIndex(VetRepository vetRepository, Duration refreshInterval, Executor executor, LongSupplier nanoTime) {
+		this.vetRepository = vetRepository;
+		this.refreshInterval = refreshInterval.toNanos();
+		this.executor = executor;
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * Return the vets with the given specialties whose last name starts with the given
+	 * prefix, sorted by id.
+	 * @param specialties the names of the specialties, or an empty collection for any
+	 * @param all whether the vets must have all the specialties, or at least one of them
+	 * @param lastName the case-insensitive prefix of the last name, or <code>null</code>
+	 * for any
+	 */
+	List<Vet> search(Collection<String> specialties, boolean all, String lastName) {
+		Snapshot current = this.snapshot;
+		if (current == null) {
+			load();
+			return this.vetRepository.findBySpecialtiesAndLastName(specialties, all, lastName);
+		}
+		if (this.refreshInterval > 0 && this.nanoTime.getAsLong() - current.loadedAt() >= this.refreshInterval) {
+			load();
+		}
+		return current.search(specialties, all, lastName);
+	}
+
+	private void load() {
+		if (this.loading.compareAndSet(false, true)) {
+			this.executor.execute(() -> {
+				try {
+					this.snapshot = Snapshot.of(this.vetRepository.findAll(), this.nanoTime.getAsLong());
+				}
+				finally {
+					this.loading.set(false);
+				}
+			});
+		}
+	}
+
+}
@@ -15,19 +15,25 @@
  */
 package org.springframework.samples.petclinic.vet;
 
+import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record4;
+import org.jooq.SQLDialect;
 import org.jooq.exception.DataAccessException;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.samples.petclinic.system.Cursor;
 import org.springframework.samples.petclinic.system.JooqHelper;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.jooq.generated.tables.Specialties.SPECIALTIES;
 import static org.jooq.generated.tables.VetSpecialties.*;
@@ -67,15 +73,61 @@ public class VetRepository {
 	}
 
 	/**
-	 * Retrieve all <code>Vet</code>s from the data store.
+	 * Retrieve all <code>Vet</code>s from the "vets" cache, or from the data store.
 	 * @return a <code>Collection</code> of <code>Vet</code>s
 	 */
 	@Transactional(readOnly = true)
 	@Cacheable("vets")
 	public List<Vet> findAll() throws DataAccessException {
+		return fetchAll();
+	}
+
+	/**
+	 * Retrieve all <code>Vet</code>s from the data store, bypassing the cache. This is
+	 * how the "vets" cache loads and refreshes its entry.
+	 * @return a <code>Collection</code> of <code>Vet</code>s
+	 */
+	@Transactional(readOnly = true)
+	public List<Vet> fetchAll() throws DataAccessException {
 		return dsl.select(VETS.ID, VETS.FIRST_NAME, VETS.LAST_NAME, MULTISET_SPECIALITIES)
 			.from(VETS)
-			.leftJoin(VETS.vetSpecialties())
+			.orderBy(VETS.ID)
+			.fetch(VetRepository::toVet);
+	}
+
+	/**
+	 * Retrieve the <code>Vet</code>s with the given specialties whose last name starts
+	 * with the given prefix, sorted by id. This reads the data store directly, with the
+	 * <code>vets (last_name)</code> and <code>specialties (name)</code> indexes, for
+	 * searches made before the in-memory {@link VetIndex} is loaded. The last name is
+	 * compared ignoring case, as the index does: MySQL compares the column with its
+	 * default case-insensitive collation, other databases compare the lower-cased column.
+	 * @param specialties the names of the specialties, or an empty collection for any
+	 * @param all whether the vets must have all the specialties, or at least one of them
+	 * @param lastName the case-insensitive prefix of the last name, or <code>null</code>
+	 * for any
+	 * @return a <code>Collection</code> of matching <code>Vet</code>s
+	 */
+	@Transactional(readOnly = true)
+	public List<Vet> findBySpecialtiesAndLastName(Collection<String> specialties, boolean all, String lastName)
+			throws DataAccessException {
+		Condition condition = noCondition();
+		if (StringUtils.hasLength(lastName)) {
+			String pattern = escape(lastName, '!') + "%";
+			condition = condition.and(dsl.family() == SQLDialect.MYSQL ? VETS.LAST_NAME.like(pattern, '!')
+					: VETS.LAST_NAME.likeIgnoreCase(pattern, '!'));
+		}
+		if (!specialties.isEmpty()) {
+			Set<String> names = new HashSet<>(specialties);
+			Condition withSpecialty = VET_SPECIALTIES.VET_ID.eq(VETS.ID)
+				.and(VET_SPECIALTIES.specialties().NAME.in(names));
+			condition = condition
+				.and(all ? field(selectCount().from(VET_SPECIALTIES).where(withSpecialty)).eq(names.size())
+						: exists(selectOne().from(VET_SPECIALTIES).where(withSpecialty)));
+		}
+		return dsl.select(VETS.ID, VETS.FIRST_NAME, VETS.LAST_NAME, MULTISET_SPECIALITIES)
+			.from(VETS)
+			.where(condition)
 			.orderBy(VETS.ID)
 			.fetch(VetRepository::toVet);
 	}
@@ -86,26 +138,31 @@ public class VetRepository {
 	}
 
 	/**
-	 * Retrieve all <code>Vet</code>s from data store in Pages
+	 * Retrieve all <code>Vet</code>s from data store in Pages, sorted by id. When the
+	 * {@link Pageable} carries a cursor, the page starts right after the vet id of the
+	 * cursor. Pages are cached in the "vetPages" cache, keyed on the {@link Pageable}.
 	 * @param pageable
 	 * @return
 	 * @throws DataAccessException
 	 */
 	@Transactional(readOnly = true)
-	@Cacheable("vets")
+	@Cacheable(cacheNames = "vetPages", key = "#pageable")
 	public Page<Vet> findAll(Pageable pageable) throws DataAccessException {
-		var ref = new Object() {
-			Integer totalVets = 0;
+		return fetchAll(pageable);
+	}
 
-		};
-		List<Vet> vets = JooqHelper
-			.paginate(dsl, dsl.select(VETS.ID, VETS.FIRST_NAME, VETS.LAST_NAME, MULTISET_SPECIALITIES).from(VETS),
-					new Field[] { VETS.ID }, pageable.pageSize(), pageable.getOffset())
-			.fetch(it -> {
-				ref.totalVets = (Integer) it.get("total_rows");
-				return toVet(it);
-			});
-		return new Page<>(vets, pageable, ref.totalVets);
+	/**
+	 * Retrieve a page of <code>Vet</code>s from the data store, bypassing the cache. This
+	 * is how the "vetPages" cache loads and refreshes its entries.
+	 * @param pageable
+	 * @return
+	 * @throws DataAccessException
+	 */
+	@Transactional(readOnly = true)
+	public Page<Vet> fetchAll(Pageable pageable) throws DataAccessException {
+		return JooqHelper.fetchPage(dsl,
+				dsl.select(VETS.ID, VETS.FIRST_NAME, VETS.LAST_NAME, MULTISET_SPECIALITIES).from(VETS),
+				new Field[] { VETS.ID }, pageable, null, VetRepository::toVet, vet -> Cursor.of(vet.id()));
 	}
 
 	private static Vet toVet(org.jooq.Record row) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+
+/**
+ * Cache of the encoded {@link Vets} resource, one representation per supported media
+ * type, so that the <code>/vets</code> endpoint writes bytes encoded once instead of
+ * serializing the list of vets on every request.
+ * <p>
+ * The representations are encoded from the list returned by
+ * {@link VetRepository#findAll()}, itself cached: they are encoded again whenever that
+ * cache returns another list, after it expired, was refreshed or evicted. Each
+ * representation carries a strong ETag computed from its bytes, and its gzipped bytes
+ * when they are smaller.
+ * </p>
+ */
+@Component
+class VetsResponseCache {
+
+	static final List<MediaType> MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+
+	/**
+	 * The encoded bytes of the vets, in a given media type.
+	 *
+	 * @param gzipped the gzipped bytes, or <code>null</code> when they are not smaller
+	 */
+	record Representation(MediaType contentType, byte[] body, byte[] gzipped, String etag) {
+
+		String gzippedEtag() {
+			return this.etag + "-gzip";
+		}
+
+	}
+
+	private record Snapshot(List<Vet> vets, Map<MediaType, Representation> representations) {
+	}
+
+	private final VetRepository vetRepository;
+
+	private final HttpMessageConverters converters;
+
+	private volatile Snapshot snapshot;
+
+	VetsResponseCache(VetRepository vetRepository, HttpMessageConverters converters) {
+		this.vetRepository = vetRepository;
+		this.converters = converters;
+	}
+
+	/**
+	 * Return the representation of the vets in the first of the acceptable media types
+	 * that is supported, encoding it if it is not cached yet.
+	 * @param acceptable the media types accepted by the client, most preferred first
+	 */
+	Representation get(List<MediaType> acceptable) throws HttpMediaTypeNotAcceptableException {
+		MediaType mediaType = select(acceptable);
+		List<Vet> vets = this.vetRepository.findAll();
+		Snapshot current = this.snapshot;
+		if (current == null || current.vets() != vets) {
+			current = new Snapshot(vets, new ConcurrentHashMap<>());
+			this.snapshot = current;
+		}
+		return current.representations().computeIfAbsent(mediaType, type -> encode(new Vets(vets), type));
+	}
+
+	private static MediaType select(List<MediaType> acceptable) throws HttpMediaTypeNotAcceptableException {
+		for (MediaType accepted : acceptable) {
+			for (MediaType supported : MEDIA_TYPES) {
+				if (accepted.isCompatibleWith(supported)) {
+					return supported;
+				}
+			}
+		}
+		throw new HttpMediaTypeNotAcceptableException(MEDIA_TYPES);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Representation encode(Vets vets, MediaType mediaType) {
+		for (HttpMessageConverter<?> converter : this.converters) {
+			if (converter.canWrite(Vets.class, mediaType)) {
+				BufferedOutputMessage message = new BufferedOutputMessage();
+				try {
+					((HttpMessageConverter<Object>) converter).write(vets, mediaType, message);
+				}
+				catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+				MediaType contentType = message.getHeaders().getContentType();
+				byte[] body = message.body.toByteArray();
+				byte[] gzipped = gzip(body);
+				return new Representation(contentType != null ? contentType : mediaType, body,
+						gzipped.length < body.length ? gzipped : null, DigestUtils.md5DigestAsHex(body));
+			}
+		}
+		throw new IllegalStateException("No converter for Vets in " + mediaType);
+	}
+
+	private static byte[] gzip(byte[] body) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(body);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static class BufferedOutputMessage implements HttpOutputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		@Override
+		public OutputStream getBody() {
+			return this.body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.headers;
+		}
+
+	}
+
+}
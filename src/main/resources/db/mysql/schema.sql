@@ -32,8 +32,19 @@ CREATE TABLE IF NOT EXISTS owners (
   address VARCHAR(255),
   city VARCHAR(80),
   telephone VARCHAR(20),
+  version INT UNSIGNED NOT NULL DEFAULT 0,
+  -- case-insensitive with the default collation, used by last_name prefix searches
   INDEX(last_name)
 ) engine=InnoDB;
+-- version of the owners, pets and visits of databases created before it was added: MySQL has
+-- no ADD COLUMN IF NOT EXISTS, so the ALTER is only prepared when the column is missing
+SET @add_version = (SELECT IF(COUNT(*) = 0,
+  'ALTER TABLE owners ADD COLUMN version INT UNSIGNED NOT NULL DEFAULT 0', 'DO 0')
+  FROM information_schema.columns
+  WHERE table_schema = DATABASE() AND table_name = 'owners' AND column_name = 'version');
+PREPARE add_version FROM @add_version;
+EXECUTE add_version;
+DEALLOCATE PREPARE add_version;
 
 CREATE TABLE IF NOT EXISTS pets (
   id INT(4) UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
@@ -41,15 +52,42 @@ CREATE TABLE IF NOT EXISTS pets (
   birth_date DATE,
   type_id INT(4) UNSIGNED NOT NULL,
   owner_id INT(4) UNSIGNED,
+  version INT UNSIGNED NOT NULL DEFAULT 0,
   INDEX(name),
   FOREIGN KEY (owner_id) REFERENCES owners(id),
   FOREIGN KEY (type_id) REFERENCES types(id)
 ) engine=InnoDB;
+SET @add_version = (SELECT IF(COUNT(*) = 0,
+  'ALTER TABLE pets ADD COLUMN version INT UNSIGNED NOT NULL DEFAULT 0', 'DO 0')
+  FROM information_schema.columns
+  WHERE table_schema = DATABASE() AND table_name = 'pets' AND column_name = 'version');
+PREPARE add_version FROM @add_version;
+EXECUTE add_version;
+DEALLOCATE PREPARE add_version;
 
 CREATE TABLE IF NOT EXISTS visits (
   id INT(4) UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
   pet_id INT(4) UNSIGNED,
   visit_date DATE,
   description VARCHAR(255),
+  version INT UNSIGNED NOT NULL DEFAULT 0,
+  INDEX(pet_id, visit_date, id),
   FOREIGN KEY (pet_id) REFERENCES pets(id)
 ) engine=InnoDB;
+SET @add_version = (SELECT IF(COUNT(*) = 0,
+  'ALTER TABLE visits ADD COLUMN version INT UNSIGNED NOT NULL DEFAULT 0', 'DO 0')
+  FROM information_schema.columns
+  WHERE table_schema = DATABASE() AND table_name = 'visits' AND column_name = 'version');
+PREPARE add_version FROM @add_version;
+EXECUTE add_version;
+DEALLOCATE PREPARE add_version;
+
+-- ids of new owners, pets and visits, reserved by blocks (see IdAllocator): MySQL has no
+-- sequences, so the last id reserved for each of them is kept in a row
+CREATE TABLE IF NOT EXISTS id_sequences (
+  name VARCHAR(30) NOT NULL PRIMARY KEY,
+  last_id BIGINT UNSIGNED NOT NULL DEFAULT 0
+) engine=InnoDB;
+INSERT IGNORE INTO id_sequences VALUES ('owners_seq', 0);
+INSERT IGNORE INTO id_sequences VALUES ('pets_seq', 0);
+INSERT IGNORE INTO id_sequences VALUES ('visits_seq', 0);
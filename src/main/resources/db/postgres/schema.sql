@@ -29,17 +29,24 @@ CREATE TABLE IF NOT EXISTS owners (
   last_name  TEXT,
   address    TEXT,
   city       TEXT,
-  telephone  TEXT
+  telephone  TEXT,
+  version    INT NOT NULL DEFAULT 0
 );
+-- version of the owners, pets and visits of databases created before it was added
+ALTER TABLE owners ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
 CREATE INDEX ON owners (last_name);
+-- case-insensitive prefix search on last_name (see OwnerRepository#lastNameStartsWith)
+CREATE INDEX IF NOT EXISTS owners_last_name_lower ON owners (lower(last_name) text_pattern_ops);
 
 CREATE TABLE IF NOT EXISTS pets (
   id         INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
   name       TEXT,
   birth_date DATE,
   type_id    INT NOT NULL REFERENCES types (id),
-  owner_id   INT REFERENCES owners (id)
+  owner_id   INT REFERENCES owners (id),
+  version    INT NOT NULL DEFAULT 0
 );
+ALTER TABLE pets ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
 CREATE INDEX ON pets (name);
 CREATE INDEX ON pets (owner_id);
 
@@ -47,6 +54,13 @@ CREATE TABLE IF NOT EXISTS visits (
   id          INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
   pet_id      INT REFERENCES pets (id),
   visit_date  DATE,
-  description TEXT
+  description TEXT,
+  version     INT NOT NULL DEFAULT 0
 );
-CREATE INDEX ON visits (pet_id);
+ALTER TABLE visits ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
+CREATE INDEX IF NOT EXISTS visits_pet_id_visit_date ON visits (pet_id, visit_date, id);
+
+-- ids of new owners, pets and visits, reserved by blocks (see IdAllocator)
+CREATE SEQUENCE IF NOT EXISTS owners_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS pets_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS visits_seq START WITH 1 INCREMENT BY 50;
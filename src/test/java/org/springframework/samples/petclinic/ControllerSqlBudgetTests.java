@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic;
+
+import static org.springframework.samples.petclinic.system.SqlBudgetExtension.statementsAtMost;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.owner.PetTypes;
+import org.springframework.samples.petclinic.system.SqlBudget;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * SQL statement budgets of the pages of the owner, pet, visit and vet controllers, run
+ * against the database: a page reading a list with a statement per row, rather than one
+ * for the whole list, exceeds its budget. The controller tests mock the repositories, so
+ * they cannot catch it. The caches are cleared before each page, so that the budgets hold
+ * for a page served from the database, and only the pet types are read beforehand.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisabledInNativeImage
+@DisabledInAotMode
+@SqlBudget(max = 3)
+class ControllerSqlBudgetTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private PetTypes petTypes;
+
+	@Autowired
+	private CacheManager cacheManager;
+
+	@BeforeEach
+	void clearCachesAndLoadPetTypes() {
+		this.cacheManager.getCacheNames().forEach(name -> this.cacheManager.getCache(name).clear());
+		this.petTypes.findAll();
+	}
+
+	@Test
+	@SqlBudget(max = 1)
+	void ownersListReadsOwnersWithTheirPetsAndTotalAtOnce() throws Exception {
+		this.mockMvc.perform(get("/owners")).andExpect(status().isOk()).andExpect(statementsAtMost(1));
+	}
+
+	@Test
+	@SqlBudget(max = 2)
+	void ownerDetailsReadVersionThenAggregate() throws Exception {
+		this.mockMvc.perform(get("/owners/1")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 1)
+	void newPetFormReadsOwnerWithPets() throws Exception {
+		this.mockMvc.perform(get("/owners/6/pets/new")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 2)
+	void editPetFormReadsOwnerWithPetsThenPet() throws Exception {
+		this.mockMvc.perform(get("/owners/6/pets/7/edit")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 2)
+	void newVisitFormReadsOwnerThenPetWithRecentVisits() throws Exception {
+		this.mockMvc.perform(get("/owners/6/pets/7/visits/new")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 1)
+	void moreVisitsReadPageOfVisitsOnly() throws Exception {
+		this.mockMvc.perform(get("/owners/6/pets/7/visits")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 1)
+	void vetsPageReadsVetsWithTheirSpecialtiesAtOnce() throws Exception {
+		this.mockMvc.perform(get("/vets.html")).andExpect(status().isOk());
+	}
+
+	@Test
+	@SqlBudget(max = 1)
+	void vetsResourceReadsVetsWithTheirSpecialtiesAtOnce() throws Exception {
+		this.mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+	}
+
+}
@@ -19,6 +19,8 @@ package org.springframework.samples.petclinic;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.jooq.generated.tables.Owners.OWNERS;
+import static org.jooq.impl.DSL.*;
 
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -26,6 +28,8 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -44,8 +48,10 @@ import org.springframework.core.env.PropertySource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
 import org.springframework.samples.petclinic.vet.VetRepository;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 import org.testcontainers.DockerClientFactory;
 
@@ -65,6 +71,12 @@ public class PostgresIntegrationTests {
 	@Autowired
 	private RestTemplateBuilder builder;
 
+	@Autowired
+	private OwnerRepository owners;
+
+	@Autowired
+	private DSLContext dsl;
+
 	@BeforeAll
 	static void available() {
 		assumeTrue(DockerClientFactory.instance().isDockerAvailable(), "Docker not available");
@@ -86,6 +98,23 @@ public class PostgresIntegrationTests {
 		vets.findAll(); // served from cache
 	}
 
+	@Test
+	@Transactional
+	void testLastNamePrefixSearchUsesIndex() {
+		Field<Integer> i = field(name("i"), Integer.class);
+		dsl.insertInto(OWNERS, OWNERS.FIRST_NAME, OWNERS.LAST_NAME)
+			.select(select(val("George"), concat(val("Owner"), i.cast(String.class)))
+				.from(generateSeries(1, 100_000).as("t", "i")))
+			.execute();
+		dsl.execute("ANALYZE owners");
+
+		String ilikePlan = dsl.explain(dsl.selectFrom(OWNERS).where(OWNERS.LAST_NAME.likeIgnoreCase("davis%"))).plan();
+		String prefixPlan = dsl.explain(dsl.selectFrom(OWNERS).where(owners.lastNameStartsWith("davis"))).plan();
+
+		assertThat(ilikePlan).contains("Seq Scan");
+		assertThat(prefixPlan).contains("owners_last_name_lower").doesNotContain("Seq Scan");
+	}
+
 	@Test
 	void testOwnerDetails() {
 		RestTemplate template = builder.rootUri("http://localhost:" + port).build();
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.owner.LastNameIndex.Suggestion;
+
+/**
+ * Test class for {@link LastNameIndex}
+ */
+class LastNameIndexTests {
+
+	private LastNameIndex index;
+
+	@BeforeEach
+	void setup() {
+		index = new LastNameIndex();
+		index.load(Map.of("Davis", 2, "Franklin", 1, "davidson", 1, "Black", 1));
+	}
+
+	@Test
+	void shouldSuggestByPrefixIgnoringCase() {
+		assertThat(index.suggest("DAV", 10)).containsExactly(new Suggestion("davidson", 1), new Suggestion("Davis", 2));
+		assertThat(index.suggest("f", 10)).containsExactly(new Suggestion("Franklin", 1));
+		assertThat(index.suggest("Fz", 10)).isEmpty();
+		assertThat(index.suggest("", 2)).extracting(Suggestion::lastName).containsExactly("Black", "davidson");
+	}
+
+	@Test
+	void shouldKeepCountsOnAddAndRemove() {
+		index.add("Davis");
+		index.add("Daly");
+		index.remove("Franklin");
+		index.remove("Unknown");
+
+		assertThat(index.suggest("da", 10)).containsExactly(new Suggestion("Daly", 1), new Suggestion("davidson", 1),
+				new Suggestion("Davis", 3));
+		assertThat(index.suggest("fr", 10)).isEmpty();
+	}
+
+	@Test
+	void shouldIgnoreUpdatesUntilLoaded() {
+		LastNameIndex empty = new LastNameIndex();
+		empty.add("Davis");
+		assertThat(empty.isLoaded()).isFalse();
+		assertThat(empty.suggest("d", 10)).isEmpty();
+	}
+
+}
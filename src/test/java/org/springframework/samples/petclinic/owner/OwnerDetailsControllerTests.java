@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.samples.petclinic.owner;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for {@link OwnerDetailsController}
+ */
+@WebMvcTest(OwnerDetailsController.class)
+@DisabledInNativeImage
+@DisabledInAotMode
+class OwnerDetailsControllerTests {
+
+	private static final int TEST_OWNER_ID = 1;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockitoBean
+	private OwnerRepository owners;
+
+	@BeforeEach
+	void setup() {
+		Owner george = new Owner();
+		george.setId(TEST_OWNER_ID);
+		george.setFirstName("George");
+		george.setLastName("Franklin");
+		george.setAddress("110 W. Liberty St.");
+		george.setCity("Madison");
+		george.setTelephone("6085551023");
+		Pet max = new Pet();
+		max.setType(new PetType(1, "dog"));
+		max.setName("Max");
+		max.setBirthDate(LocalDate.now());
+		george.addPet(max);
+		max.setId(1);
+		max.getVisits().add(new Visit());
+		given(this.owners.findByIdWithPetsAndVisits(TEST_OWNER_ID)).willReturn(Optional.of(george));
+		given(this.owners.findAggregateVersion(TEST_OWNER_ID)).willReturn(Optional.of(3L));
+	}
+
+	@Test
+	void testShowOwner() throws Exception {
+		mockMvc.perform(get("/owners/{ownerId}", TEST_OWNER_ID))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("owner", hasProperty("lastName", is("Franklin"))))
+			.andExpect(model().attribute("owner", hasProperty("firstName", is("George"))))
+			.andExpect(model().attribute("owner", hasProperty("address", is("110 W. Liberty St."))))
+			.andExpect(model().attribute("owner", hasProperty("city", is("Madison"))))
+			.andExpect(model().attribute("owner", hasProperty("telephone", is("6085551023"))))
+			.andExpect(model().attribute("owner", hasProperty("pets", not(empty()))))
+			.andExpect(model().attribute("owner",
+					hasProperty("pets", hasItem(hasProperty("visits", hasSize(greaterThan(0)))))))
+			.andExpect(view().name("owners/ownerDetails"));
+	}
+
+	@Test
+	void testShowOwnerNotModified() throws Exception {
+		String etag = mockMvc.perform(get("/owners/{ownerId}", TEST_OWNER_ID))
+			.andExpect(status().isOk())
+			.andExpect(header().string("Cache-Control", "no-cache, private"))
+			.andReturn()
+			.getResponse()
+			.getHeader("ETag");
+		assertThat(etag).isNotNull();
+		clearInvocations(this.owners);
+
+		mockMvc.perform(get("/owners/{ownerId}", TEST_OWNER_ID).header("If-None-Match", etag))
+			.andExpect(status().isNotModified())
+			.andExpect(content().string(""));
+		verify(this.owners, never()).findById(TEST_OWNER_ID);
+		verify(this.owners, never()).findByIdWithPetsAndVisits(TEST_OWNER_ID);
+
+		given(this.owners.findAggregateVersion(TEST_OWNER_ID)).willReturn(Optional.of(4L));
+		mockMvc.perform(get("/owners/{ownerId}", TEST_OWNER_ID).header("If-None-Match", etag))
+			.andExpect(status().isOk())
+			.andExpect(header().string("ETag", not(etag)));
+	}
+
+	@Test
+	void testShowOwnerWithFlashMessageNotTagged() throws Exception {
+		mockMvc.perform(get("/owners/{ownerId}", TEST_OWNER_ID).flashAttr("message", "Owner Values Updated"))
+			.andExpect(status().isOk())
+			.andExpect(header().doesNotExist("ETag"))
+			.andExpect(header().string("Cache-Control", "no-store"));
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.owner.OwnerExporter.Format;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+/**
+ * Test class for {@link OwnerExporter}, with a small fetch size so that the rows are read
+ * in several round trips.
+ */
+@SpringBootTest(properties = "petclinic.export.fetch-size=2")
+@AutoConfigureMockMvc
+@DisabledInNativeImage
+@DisabledInAotMode
+class OwnerExporterTests {
+
+	@Autowired
+	private OwnerExporter exporter;
+
+	@Autowired
+	private OwnerImporter importer;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	void shouldExportOwnersAsCsv() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long rows = this.exporter.exportOwners(Format.CSV, out);
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+		assertThat(lines).hasSize((int) rows + 1);
+		assertThat(lines[0]).isEqualTo("id,first_name,last_name,address,city,telephone");
+		assertThat(lines[1]).isEqualTo("1,George,Franklin,110 W. Liberty St.,Madison,6085551023");
+	}
+
+	@Test
+	void shouldExportPetsThatCanBeImportedAgain() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long rows = this.exporter.exportPets(Format.CSV, out);
+		String csv = out.toString(StandardCharsets.UTF_8);
+		assertThat(csv).startsWith("id,name,birth_date,type,owner_id\n1,Leo,2010-09-07,cat,1\n");
+
+		OwnerImporter.Result result = this.importer.importPets(new StringReader(csv), true);
+		assertThat(result.stored()).isEqualTo((int) rows);
+		assertThat(result.ignored()).isZero();
+	}
+
+	@Test
+	void shouldQuoteCsvValues() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.importer.importOwners(new StringReader("""
+				id,first_name,last_name,address,city,telephone
+				401,Gil,Quoter,"8 Main St., ""Rear""\",Madison,
+				"""), true);
+		this.exporter.exportOwners(Format.CSV, out);
+		assertThat(out.toString(StandardCharsets.UTF_8))
+			.contains("\n401,Gil,Quoter,\"8 Main St., \"\"Rear\"\"\",Madison,\n");
+	}
+
+	@Test
+	void shouldStreamVisitsAsNdjson() throws Exception {
+		MvcResult result = this.mockMvc.perform(get("/api/visits:export").param("format", "ndjson"))
+			.andExpect(request().asyncStarted())
+			.andReturn();
+		this.mockMvc.perform(asyncDispatch(result))
+			.andExpect(status().isOk())
+			.andExpect(content().contentType("application/x-ndjson"))
+			.andExpect(header().string("Content-Disposition", "attachment; filename=\"visits.ndjson\""))
+			.andExpect(content().string(startsWith(
+					"{\"id\":1,\"pet_id\":7,\"visit_date\":\"2013-01-01\",\"description\":\"rabies shot\"}\n")));
+
+		this.mockMvc.perform(get("/api/owners:export").param("format", "xml")).andExpect(status().isBadRequest());
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.samples.petclinic.owner.OwnerImporter.Result;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Test class for {@link OwnerImporter}, with small bulk and batch sizes so that the files
+ * are loaded with several statements and commits. Imports run outside of the test
+ * transactions, so this class has a database of its own, and each test imports its own
+ * range of ids.
+ */
+@SpringBootTest(properties = { "petclinic.import.bulk-size=2", "petclinic.import.batch-size=2",
+		"petclinic.import.commit-size=1" })
+@AutoConfigureMockMvc
+@DisabledInNativeImage
+@DisabledInAotMode
+class OwnerImporterTests {
+
+	@Autowired
+	private OwnerImporter importer;
+
+	@Autowired
+	private OwnerRepository owners;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	void shouldImportOwnersAgain() {
+		String csv = """
+				id,last_name,first_name,address,city,telephone
+				101,Importer,Ann,1 Main St.,Madison,6085550101
+				102,Importer,Bob,2 Main St.,Madison,6085550102
+				x,Importer,Bad,3 Main St.,Madison,6085550103
+
+				103,Importer,Cid,4 Main St.,Madison,6085550104
+				""";
+		Result first = this.importer.importOwners(new StringReader(csv), true);
+		assertThat(first.processed()).isEqualTo(4);
+		assertThat(first.stored()).isEqualTo(3);
+		assertThat(first.ignored()).isEqualTo(1);
+		assertThat(first.errors()).singleElement().asString().startsWith("line 4: ");
+		long version = this.owners.findAggregateVersion(102).orElseThrow();
+
+		Result again = this.importer
+			.importOwners(new StringReader(csv.replace("2 Main St.,Madison", "2 Main St.,Monona")), true);
+		assertThat(again.stored()).isEqualTo(3);
+		assertThat(this.owners.findByIdWithPetsAndVisits(102)).hasValueSatisfying(owner -> {
+			assertThat(owner.getFirstName()).isEqualTo("Bob");
+			assertThat(owner.getCity()).isEqualTo("Monona");
+		});
+		assertThat(this.owners.findAggregateVersion(102).orElseThrow()).isGreaterThan(version);
+		assertThat(this.owners.suggestLastNames("Impo", 5)).singleElement()
+			.isEqualTo(new LastNameIndex.Suggestion("Importer", 3));
+
+		Owner owner = new Owner(null, "Dan", "Importer", "5 Main St.", "Madison", "6085550105", List.of());
+		assertThat(this.owners.saveOrUpdateDetails(owner)).isGreaterThan(103);
+	}
+
+	@Test
+	void shouldOnlyChangeVersionOfImportedOwners() {
+		this.importer.importOwners(new StringReader("""
+				id,first_name,last_name,address,city,telephone
+				401,Gil,Versioner,8 Main St.,Madison,6085550401
+				402,Hal,Versioner,9 Main St.,Madison,6085550402
+				403,Ida,Versioner,10 Main St.,Madison,6085550403
+				"""), false);
+		long imported = this.owners.findAggregateVersion(401).orElseThrow();
+		long between = this.owners.findAggregateVersion(402).orElseThrow();
+
+		this.importer.importOwners(new StringReader("""
+				id,first_name,last_name,address,city,telephone
+				401,Gil,Versioner,8 Main St.,Monona,6085550401
+				403,Ida,Versioner,10 Main St.,Monona,6085550403
+				"""), true);
+		assertThat(this.owners.findAggregateVersion(401).orElseThrow()).isGreaterThan(imported);
+		assertThat(this.owners.findAggregateVersion(402).orElseThrow()).isEqualTo(between);
+	}
+
+	@Test
+	void shouldImportPetsResolvingTypes() {
+		this.importer.importOwners(new StringReader("""
+				id,first_name,last_name,address,city,telephone
+				201,Eve,Typer,6 Main St.,Madison,6085550201
+				"""), false);
+		Result result = this.importer.importPets(new StringReader("""
+				id,name,birth_date,type,owner_id
+				201,Rex,2020-01-02,dog,201
+				202,Tom,2020-03-04,unicorn,201
+				203,Kit,2021-05-06,cat,201
+				204,Ghost,2021-05-06,cat,999
+				"""), true);
+		assertThat(result.stored()).isEqualTo(2);
+		assertThat(result.ignored()).isEqualTo(2);
+		assertThat(result.errors()).hasSize(2);
+		assertThat(result.errors().get(0)).isEqualTo("line 3: Unknown pet type: unicorn");
+		assertThat(result.errors().get(1)).startsWith("line 5: ");
+
+		assertThat(this.owners.findByIdWithPetsAndVisits(201)).hasValueSatisfying(owner -> {
+			assertThat(owner.getPet("Rex").getType().name()).isEqualTo("dog");
+			assertThat(owner.getPet("Kit").getType().name()).isEqualTo("cat");
+		});
+	}
+
+	@Test
+	void shouldImportOwnersFromRequestBody() throws Exception {
+		this.mockMvc.perform(post("/api/owners:import").contentType("text/csv").content("""
+				id,first_name,last_name,address,city,telephone
+				301,Fay,Poster,7 Main St.,Madison,6085550301
+				"""))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.processed").value(1))
+			.andExpect(jsonPath("$.stored").value(1))
+			.andExpect(jsonPath("$.rowsPerSecond").isNumber());
+
+		this.mockMvc.perform(post("/api/pets:import").contentType("text/csv").content("id,name\n"))
+			.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void shouldRejectRequestBodyWithUnknownCharset() {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/owners:import");
+		request.setContent("id,first_name,last_name,address,city,telephone\n".getBytes(StandardCharsets.UTF_8));
+		request.setCharacterEncoding("x-unknown");
+
+		assertThatExceptionOfType(ResponseStatusException.class)
+			.isThrownBy(() -> new OwnerImportController(this.importer).importOwners(true, request))
+			.satisfies(ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.generated.Tables.VISITS;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Checks the SQL statements run by the pet and visit forms, which only need the details
+ * of the owner and of one pet rather than the whole owner aggregate.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisabledInNativeImage
+@DisabledInAotMode
+class PetAndVisitFormsSqlTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private StatementRecorder statements;
+
+	@Autowired
+	private PetTypes petTypes;
+
+	@Autowired
+	private IdAllocator ids;
+
+	@BeforeEach
+	void clear() {
+		petTypes.findAll();
+		// reserves a block of visit ids, which only the first insert would otherwise run
+		ids.nextId(VISITS.ID);
+		statements.clear();
+	}
+
+	@Test
+	void testInitNewVisitForm() throws Exception {
+		mockMvc.perform(get("/owners/6/pets/7/visits/new")).andExpect(status().isOk());
+
+		assertThat(statements.get()).hasSize(2);
+		assertThat(statements.get().get(0)).contains("\"OWNERS\"").doesNotContain("\"PETS\"");
+		assertThat(statements.get().get(1)).contains("from \"PETS\"").contains("\"VISITS\"");
+	}
+
+	@Test
+	@Transactional
+	void testProcessNewVisitForm() throws Exception {
+		mockMvc
+			.perform(post("/owners/6/pets/7/visits/new").param("date", "2024-01-01").param("description", "check-up"))
+			.andExpect(status().is3xxRedirection());
+
+		// owner, pet with its recent visits, insert, owner of the pet to evict from cache
+		assertThat(statements.get()).hasSize(4);
+		assertThat(statements.get()).filteredOn(sql -> sql.contains("\"VISITS\"")).hasSize(2);
+		assertThat(statements.get()).filteredOn(sql -> sql.startsWith("insert")).hasSize(1);
+	}
+
+	@Test
+	void testInitUpdatePetForm() throws Exception {
+		mockMvc.perform(get("/owners/6/pets/7/edit")).andExpect(status().isOk());
+
+		// owner with pets, pet
+		assertThat(statements.get()).hasSize(2).noneMatch(sql -> sql.contains("\"VISITS\""));
+	}
+
+	@Test
+	@Transactional
+	void testProcessUpdatePetForm() throws Exception {
+		mockMvc
+			.perform(post("/owners/6/pets/7/edit").param("name", "Samantha")
+				.param("birthDate", "2012-09-04")
+				.param("type", "cat"))
+			.andExpect(status().is3xxRedirection());
+
+		// owner with pets, pet, update: the owner is evicted from the cache by id
+		assertThat(statements.get()).hasSize(3).noneMatch(sql -> sql.contains("from \"TYPES\" order by"));
+	}
+
+	@Test
+	void testInitNewPetForm() throws Exception {
+		mockMvc.perform(get("/owners/6/pets/new")).andExpect(status().isOk());
+
+		// owner with pets
+		assertThat(statements.get()).hasSize(1).noneMatch(sql -> sql.contains("\"VISITS\""));
+	}
+
+	static class StatementRecorder implements ExecuteListener {
+
+		private final List<String> statements = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void executeStart(ExecuteContext ctx) {
+			statements.add(ctx.sql());
+		}
+
+		List<String> get() {
+			return statements;
+		}
+
+		void clear() {
+			statements.clear();
+		}
+
+	}
+
+	@TestConfiguration(proxyBeanMethods = false)
+	static class StatementRecorderConfiguration {
+
+		@Bean
+		StatementRecorder statementRecorder() {
+			return new StatementRecorder();
+		}
+
+		@Bean
+		ExecuteListenerProvider statementRecorderProvider(StatementRecorder recorder) {
+			return new DefaultExecuteListenerProvider(recorder);
+		}
+
+	}
+
+}
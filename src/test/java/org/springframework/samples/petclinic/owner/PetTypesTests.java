@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Test class for {@link PetTypes}
+ */
+@ExtendWith(MockitoExtension.class)
+class PetTypesTests {
+
+	@Mock
+	private PetRepository pets;
+
+	private final AtomicLong now = new AtomicLong();
+
+	private PetTypes petTypes;
+
+	@BeforeEach
+	void setup() {
+		given(this.pets.findPetTypes()).willReturn(List.of(new PetType(3, "bird"), new PetType(2, "dog")));
+		this.petTypes = new PetTypes(this.pets, Duration.ofMinutes(10), this.now::get);
+	}
+
+	@Test
+	void shouldLoadTypesOnce() {
+		assertThat(this.petTypes.findAll()).extracting(PetType::name).containsExactly("bird", "dog");
+		assertThat(this.petTypes.findByName("dog")).contains(new PetType(2, "dog"));
+		assertThat(this.petTypes.findByName("Dog")).isEmpty();
+		assertThat(this.petTypes.findByName("fish")).isEmpty();
+
+		verify(this.pets, times(1)).findPetTypes();
+	}
+
+	@Test
+	void shouldReturnImmutableTypes() {
+		assertThatExceptionOfType(UnsupportedOperationException.class)
+			.isThrownBy(() -> this.petTypes.findAll().add(new PetType(5, "fish")));
+	}
+
+	@Test
+	void shouldLoadTypesAgainAfterRefreshInterval() {
+		this.petTypes.findAll();
+		this.now.addAndGet(Duration.ofMinutes(9).toNanos());
+		this.petTypes.findAll();
+		verify(this.pets, times(1)).findPetTypes();
+
+		given(this.pets.findPetTypes()).willReturn(List.of(new PetType(5, "fish")));
+		this.now.addAndGet(Duration.ofMinutes(1).toNanos());
+		assertThat(this.petTypes.findByName("fish")).isPresent();
+		assertThat(this.petTypes.findByName("dog")).isEmpty();
+		verify(this.pets, times(2)).findPetTypes();
+	}
+
+	@Test
+	void shouldLoadTypesAgainAfterInvalidation() {
+		this.petTypes.findAll();
+		this.petTypes.invalidate();
+		this.petTypes.findAll();
+
+		verify(this.pets, times(2)).findPetTypes();
+	}
+
+	@Test
+	void shouldKeepTypesWithoutRefreshInterval() {
+		PetTypes petTypes = new PetTypes(this.pets, Duration.ZERO, this.now::get);
+		petTypes.findAll();
+		this.now.addAndGet(Duration.ofDays(365).toNanos());
+		petTypes.findAll();
+
+		verify(this.pets, times(1)).findPetTypes();
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.owner.VisitRepository.BatchItem;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Test class for {@link VisitBatchController}
+ */
+@WebMvcTest(controllers = VisitBatchController.class, properties = "petclinic.visits.batch.max-size=3")
+@DisabledInNativeImage
+@DisabledInAotMode
+class VisitBatchControllerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockitoBean
+	private VisitRepository visits;
+
+	@Test
+	void testSaveVisits() throws Exception {
+		given(this.visits.saveAll(List.of(new Visit(LocalDate.of(2024, 1, 2), "rabies shot", 7),
+				new Visit(LocalDate.of(2024, 1, 3), "spayed", 99))))
+			.willReturn(List.of(BatchItem.saved(0, 42), BatchItem.rejected(1, "Unknown pet: 99")));
+
+		mockMvc.perform(post("/api/visits:batch").contentType(MediaType.APPLICATION_JSON).content("""
+				[{"id": 1, "date": "2024-01-02", "description": "rabies shot", "petId": 7},
+				 {"date": "2024-01-03", "description": " ", "petId": 7},
+				 {"date": "2024-01-03", "description": "spayed", "petId": 99}]
+				"""))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.length()").value(3))
+			.andExpect(jsonPath("$[0].index").value(0))
+			.andExpect(jsonPath("$[0].id").value(42))
+			.andExpect(jsonPath("$[0].error").value(nullValue()))
+			.andExpect(jsonPath("$[1].index").value(1))
+			.andExpect(jsonPath("$[1].id").value(nullValue()))
+			.andExpect(jsonPath("$[1].error").value("description: must not be blank"))
+			.andExpect(jsonPath("$[2].index").value(2))
+			.andExpect(jsonPath("$[2].error").value("Unknown pet: 99"));
+	}
+
+	@Test
+	void testSaveVisitsRejectsNullVisits() throws Exception {
+		given(this.visits.saveAll(List.of(new Visit(LocalDate.of(2024, 1, 2), "rabies shot", 7))))
+			.willReturn(List.of(BatchItem.saved(0, 42)));
+
+		mockMvc.perform(post("/api/visits:batch").contentType(MediaType.APPLICATION_JSON).content("""
+				[null, {"date": "2024-01-02", "description": "rabies shot", "petId": 7}]
+				"""))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.length()").value(2))
+			.andExpect(jsonPath("$[0].index").value(0))
+			.andExpect(jsonPath("$[0].error").value("must not be null"))
+			.andExpect(jsonPath("$[1].index").value(1))
+			.andExpect(jsonPath("$[1].id").value(42));
+	}
+
+	@Test
+	void testSaveVisitsRejectsTooLargeBatch() throws Exception {
+		String visit = """
+				{"date": "2024-01-02", "description": "rabies shot", "petId": 7}""";
+		String batch = Stream.generate(() -> visit).limit(4).collect(Collectors.joining(",", "[", "]"));
+
+		mockMvc.perform(post("/api/visits:batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+			.andExpect(status().isPayloadTooLarge());
+		verifyNoInteractions(this.visits);
+	}
+
+}
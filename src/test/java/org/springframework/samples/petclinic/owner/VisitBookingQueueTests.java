@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.owner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.system.IdAllocator;
+import org.springframework.test.context.aot.DisabledInAotMode;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test class for {@link VisitBookingQueue} in write-behind mode. The writer only runs
+ * once at startup, so that the tests store the pending visits themselves.
+ */
+@SpringBootTest(properties = { "petclinic.visits.write-behind.enabled=true",
+		"petclinic.visits.write-behind.journal=${java.io.tmpdir}/petclinic-tests/visits-${random.uuid}.journal",
+		"petclinic.visits.write-behind.interval=1h" })
+@DisabledInNativeImage
+@DisabledInAotMode
+class VisitBookingQueueTests {
+
+	@Autowired
+	private VisitBookingQueue bookings;
+
+	@Autowired
+	private PendingVisits pendingVisits;
+
+	@Autowired
+	private OwnerRepository owners;
+
+	@Autowired
+	private PetRepository pets;
+
+	@Autowired
+	private VisitRepository visits;
+
+	@Autowired
+	private IdAllocator ids;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void shouldReadPendingVisitsUntilStored() throws Exception {
+		long version = this.owners.findAggregateVersion(6).orElseThrow();
+		int count = this.visits.findByPetId(7).size();
+
+		this.bookings.book(6, new Visit(LocalDate.of(2013, 1, 5), "write-behind", 7));
+
+		assertThat(this.meterRegistry.get("petclinic.visits.pending").gauge().value()).isEqualTo(1);
+		assertThat(this.visits.findByPetId(7)).hasSize(count + 1)
+			.first()
+			.satisfies(visit -> assertThat(visit.description()).isEqualTo("write-behind"));
+		assertThat(this.visits.findByPetId(6, 7, null, 1).orElseThrow()).hasSize(2);
+		assertThat(this.pets.findByIdWithRecentVisits(6, 7).orElseThrow().getVisitCount()).isEqualTo(count + 1);
+		Pet samantha = this.owners.findByIdWithPetsAndVisits(6).orElseThrow().getPet("Samantha");
+		assertThat(samantha.getVisits()).first()
+			.satisfies(visit -> assertThat(visit.description()).isEqualTo("write-behind"));
+		assertThat(this.owners.findAggregateVersion(6)).hasValue(version + 1);
+
+		assertThat(this.bookings.drain()).isEqualTo(1);
+
+		assertThat(this.pendingVisits.size()).isZero();
+		assertThat(this.visits.findByPetId(7)).hasSize(count + 1)
+			.filteredOn(visit -> "write-behind".equals(visit.description()))
+			.singleElement()
+			.satisfies(visit -> assertThat(visit.isNew()).isFalse());
+		assertThat(this.owners.findAggregateVersion(6)).hasValue(version + 1);
+	}
+
+	@Test
+	void shouldNotReadVisitsTwiceWhileTheyAreStored() throws Exception {
+		int count = this.visits.findByPetId(7).size();
+		this.bookings.book(6, new Visit(LocalDate.of(2013, 1, 6), "stored and pending", 7));
+
+		// stored as by the writer, which forgets the pending visits after the commit
+		this.visits.saveAll(this.pendingVisits.oldest(10).stream().map(PendingVisits.Pending::visit).toList());
+
+		assertThat(this.pendingVisits.size()).isEqualTo(1);
+		assertThat(this.visits.findByPetId(7)).hasSize(count + 1);
+		assertThat(this.pets.findByIdWithRecentVisits(6, 7).orElseThrow().getVisitCount()).isEqualTo(count + 1);
+		assertThat(this.bookings.drain()).isEqualTo(1);
+		assertThat(this.visits.findByPetId(7)).hasSize(count + 1);
+	}
+
+	@Test
+	void shouldReplayVisitsNotStored(@TempDir Path dir) throws Exception {
+		Path path = dir.resolve("visits.journal");
+		Files.writeString(path, """
+				{"seq":1,"ownerId":6,"petId":8,"date":"2013-02-01","description":"stored"}
+				{"seq":2,"ownerId":6,"petId":8,"date":"2013-02-02","description":"pending"}
+				{"seq":1}
+				{"seq":3,"ownerId":6,"petId":8,"date":"2013-02-03","description":"to""", StandardCharsets.UTF_8);
+		PendingVisits pending = new PendingVisits();
+
+		VisitBookingQueue replayed = new VisitBookingQueue(this.visits, pending, this.ids, this.objectMapper,
+				new SimpleMeterRegistry(), true, path, 500, Duration.ofHours(1));
+
+		assertThat(pending.findByPetId(8)).singleElement()
+			.satisfies(visit -> assertThat(visit.description()).isEqualTo("pending"));
+		assertThat(Files.readString(path)).endsWith("{\"seq\":1}\n");
+
+		replayed.book(6, new Visit(LocalDate.of(2013, 2, 4), "booked", 8));
+		assertThat(Files.readString(path)).contains("\"seq\":3").contains("\"booked\"");
+		assertThat(replayed.drain()).isEqualTo(2);
+		assertThat(pending.size()).isZero();
+		assertThat(path).isEmptyFile();
+		replayed.stop();
+	}
+
+	@Test
+	void shouldNotStoreReplayedVisitsTwice(@TempDir Path dir) throws Exception {
+		Path path = dir.resolve("visits.journal");
+		VisitBookingQueue queue = new VisitBookingQueue(this.visits, new PendingVisits(), this.ids, this.objectMapper,
+				new SimpleMeterRegistry(), true, path, 500, Duration.ofHours(1));
+		queue.book(6, new Visit(LocalDate.of(2013, 3, 1), "booked once", 8));
+		String journal = Files.readString(path);
+		assertThat(queue.drain()).isEqualTo(1);
+		queue.stop();
+		// as if the application crashed after the batch was committed, before its
+		// checkpoint
+		Files.writeString(path, journal, StandardCharsets.UTF_8);
+
+		PendingVisits pending = new PendingVisits();
+		VisitBookingQueue replayed = new VisitBookingQueue(this.visits, pending, this.ids, this.objectMapper,
+				new SimpleMeterRegistry(), true, path, 500, Duration.ofHours(1));
+		assertThat(pending.size()).isEqualTo(1);
+		replayed.drain();
+
+		assertThat(this.visits.findByPetId(8)).filteredOn(visit -> "booked once".equals(visit.description()))
+			.hasSize(1);
+		replayed.stop();
+	}
+
+	@Test
+	void shouldMoveVisitsThatCannotBeStoredToRejectedJournal(@TempDir Path dir) throws Exception {
+		Path path = dir.resolve("visits.journal");
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		VisitBookingQueue queue = new VisitBookingQueue(this.visits, new PendingVisits(), this.ids, this.objectMapper,
+				meterRegistry, true, path, 500, Duration.ofHours(1));
+		queue.book(6, new Visit(LocalDate.of(2013, 4, 1), "unknown pet", 9999));
+		queue.book(6, new Visit(LocalDate.of(2013, 4, 2), "known pet", 8));
+
+		assertThat(queue.drain()).isEqualTo(1);
+
+		assertThat(Files.readString(dir.resolve("visits.journal.rejected"))).contains("\"unknown pet\"")
+			.contains("Unknown pet: 9999")
+			.doesNotContain("\"known pet\"");
+		assertThat(meterRegistry.get("petclinic.visits.rejected").counter().count()).isEqualTo(1);
+		queue.stop();
+	}
+
+}
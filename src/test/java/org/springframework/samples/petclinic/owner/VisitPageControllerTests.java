@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.samples.petclinic.owner;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * Test class for {@link VisitPageController}
+ */
+@WebMvcTest(VisitPageController.class)
+@DisabledInNativeImage
+@DisabledInAotMode
+class VisitPageControllerTests {
+
+	private static final int TEST_OWNER_ID = 1;
+
+	private static final int TEST_PET_ID = 1;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockitoBean
+	private VisitRepository visits;
+
+	@Test
+	void testShowVisitsPage() throws Exception {
+		List<Visit> page = IntStream.rangeClosed(1, 11)
+			.mapToObj(i -> new Visit(100 - i, LocalDate.of(2020, 1, 1).minusDays(i), "visit " + i, TEST_PET_ID))
+			.toList();
+		given(this.visits.findByPetId(TEST_OWNER_ID, TEST_PET_ID, 42, 11)).willReturn(Optional.of(page));
+
+		mockMvc.perform(get("/owners/{ownerId}/pets/{petId}/visits", TEST_OWNER_ID, TEST_PET_ID).param("before", "42"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("visits", hasSize(10)))
+			.andExpect(model().attribute("more", true))
+			.andExpect(content().string(containsString("visit 10")))
+			.andExpect(content().string(not(containsString("visit 11"))))
+			.andExpect(content().string(containsString("/owners/1/pets/1/visits?before=90")));
+	}
+
+	@Test
+	void testShowLastVisitsPage() throws Exception {
+		given(this.visits.findByPetId(TEST_OWNER_ID, TEST_PET_ID, 42, 11))
+			.willReturn(Optional.of(List.of(new Visit(7, LocalDate.of(2020, 1, 1), "first", TEST_PET_ID))));
+
+		mockMvc.perform(get("/owners/{ownerId}/pets/{petId}/visits", TEST_OWNER_ID, TEST_PET_ID).param("before", "42"))
+			.andExpect(status().isOk())
+			.andExpect(model().attribute("more", false))
+			.andExpect(content().string(not(containsString("Show more"))));
+	}
+
+	@Test
+	void testShowVisitsOfPetOfAnotherOwner() throws Exception {
+		given(this.visits.findByPetId(TEST_OWNER_ID, TEST_PET_ID, null, 11)).willReturn(Optional.empty());
+
+		mockMvc.perform(get("/owners/{ownerId}/pets/{petId}/visits", TEST_OWNER_ID, TEST_PET_ID))
+			.andExpect(status().isNotFound());
+	}
+
+}
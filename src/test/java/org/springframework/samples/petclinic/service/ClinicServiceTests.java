@@ -17,18 +17,31 @@
 package org.springframework.samples.petclinic.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.jooq.generated.tables.Owners.OWNERS;
+import static org.jooq.impl.DSL.*;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.samples.petclinic.owner.*;
+import org.springframework.samples.petclinic.owner.VisitRepository.BatchItem;
+import org.springframework.samples.petclinic.system.CountStrategy;
+import org.springframework.samples.petclinic.system.Cursor;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
 import org.springframework.samples.petclinic.vet.Vet;
@@ -81,6 +94,9 @@ class ClinicServiceTests {
 	@Autowired
 	protected VisitRepository visits;
 
+	@Autowired
+	protected DSLContext dsl;
+
 	Pageable pageable = Pageable.ofSize(10);
 
 	@Test
@@ -92,6 +108,108 @@ class ClinicServiceTests {
 		assertThat(owners).isEmpty();
 	}
 
+	@Test
+	void shouldFindOwnersByLastNamePrefixIgnoringCase() {
+		assertThat(this.owners.findByLastNameWithPetsOnly("dAV", pageable)).extracting(Owner::getLastName)
+			.containsOnly("Davis");
+		assertThat(this.owners.findByLastNameWithPetsOnly("%", pageable)).isEmpty();
+		assertThat(this.owners.findByLastNameWithPetsOnly("D_vis", pageable)).isEmpty();
+	}
+
+	@Test
+	@Transactional
+	void shouldSearchLastNamePrefixWithIndexRangeScan() {
+		Field<Integer> i = field(name("i"), Integer.class);
+		dsl.insertInto(OWNERS, OWNERS.FIRST_NAME, OWNERS.LAST_NAME)
+			.select(select(val("George"), concat(val("Owner"), i.cast(String.class)))
+				.from(generateSeries(1, 20_000).as("t", "i")))
+			.execute();
+
+		String functionPlan = dsl.explain(dsl.selectFrom(OWNERS).where(lower(OWNERS.LAST_NAME).like("davis%"))).plan();
+		String prefixPlan = dsl.explain(dsl.selectFrom(OWNERS).where(this.owners.lastNameStartsWith("davis"))).plan();
+
+		assertThat(functionPlan).contains("tableScan").doesNotContain("OWNERS_LAST_NAME:");
+		assertThat(prefixPlan).contains("OWNERS_LAST_NAME: LAST_NAME >= 'davis'").contains("scanCount: 3");
+	}
+
+	@Test
+	void shouldSuggestLastNames() {
+		assertThat(this.owners.suggestLastNames("dA", 10)).containsExactly(new LastNameIndex.Suggestion("Davis", 2));
+		assertThat(this.owners.suggestLastNames("X", 10)).isEmpty();
+	}
+
+	@Test
+	void shouldFindSameOwnersWithKeysetAndOffsetPages() {
+		Pageable first = Pageable.ofSize(3);
+		Page<Owner> offsetPage = this.owners.findByLastNameWithPetsOnly("", first);
+		Page<Owner> keysetPage = offsetPage;
+		int pageNumber = 0;
+		while (keysetPage.next() != null) {
+			pageNumber++;
+			offsetPage = this.owners.findByLastNameWithPetsOnly("", Pageable.of(pageNumber, 3));
+			keysetPage = this.owners.findByLastNameWithPetsOnly("",
+					Pageable.of(pageNumber, 3).after(Cursor.decode(keysetPage.getNextCursor())));
+
+			assertThat(keysetPage.getContent()).extracting(Owner::getId)
+				.containsExactlyElementsOf(offsetPage.getContent().stream().map(Owner::getId).toList());
+			assertThat(keysetPage.getTotalElements()).isEqualTo(offsetPage.getTotalElements());
+		}
+		assertThat(pageNumber).isEqualTo(keysetPage.getTotalPages() - 1);
+	}
+
+	@Test
+	void shouldCountOwnersWithEachCountStrategy() {
+		for (CountStrategy strategy : CountStrategy.values()) {
+			Page<Owner> first = this.owners.findByLastNameWithPetsOnly("",
+					Pageable.ofSize(3).withCountStrategy(strategy));
+			assertThat(first).hasSize(3);
+			assertThat(first.next()).isNotNull();
+			assertThat(first.getTotalPages()).isGreaterThan(1);
+
+			Page<Owner> last = this.owners.findByLastNameWithPetsOnly("",
+					Pageable.of(3, 3).withCountStrategy(strategy));
+			assertThat(last).hasSize(1);
+			assertThat(last.next()).isNull();
+			assertThat(last.isTotalExact()).isTrue();
+			assertThat(last.getTotalElements()).isEqualTo(10);
+		}
+	}
+
+	@Test
+	void shouldCarryExactTotalInCursor() {
+		Page<Owner> first = this.owners.findByLastNameWithPetsOnly("", Pageable.ofSize(3));
+		Cursor next = Cursor.decode(first.getNextCursor());
+		assertThat(next.total()).isEqualTo(10);
+
+		// the keyset page does not count the owners again, it trusts the cursor
+		Page<Owner> second = this.owners.findByLastNameWithPetsOnly("",
+				Pageable.of(1, 3).after(new Cursor(next.values(), 12L)));
+		assertThat(second).hasSize(3);
+		assertThat(second.getTotalElements()).isEqualTo(12);
+		assertThat(Cursor.decode(second.getNextCursor()).total()).isEqualTo(12);
+
+		Page<Owner> withoutTotal = this.owners.findByLastNameWithPetsOnly("",
+				Pageable.of(1, 3).after(new Cursor(next.values())));
+		assertThat(withoutTotal.getTotalElements()).isEqualTo(10);
+	}
+
+	@Test
+	@Transactional
+	void shouldCountAgainWithCachedStrategyOnceOwnerAdded() {
+		Pageable cached = Pageable.ofSize(1).withCountStrategy(CountStrategy.CACHED);
+		assertThat(this.owners.findByLastNameWithPetsOnly("Davis", cached).getTotalElements()).isEqualTo(2);
+
+		Owner owner = new Owner();
+		owner.setFirstName("Sam");
+		owner.setLastName("Davis");
+		owner.setAddress("4, Evans Street");
+		owner.setCity("Wollongong");
+		owner.setTelephone("4444444444");
+		this.owners.saveOrUpdateDetails(owner);
+
+		assertThat(this.owners.findByLastNameWithPetsOnly("davis", cached).getTotalElements()).isEqualTo(3);
+	}
+
 	@Test
 	void shouldFindSingleOwnerWithPet() {
 		Optional<Owner> optionalOwner = this.owners.findByIdWithPetsAndVisits(1);
@@ -141,6 +259,44 @@ class ClinicServiceTests {
 		assertThat(owner.getLastName()).isEqualTo(newLastName);
 	}
 
+	@Test
+	@Transactional
+	void shouldRejectUpdateOfOwnerChangedSinceRead() {
+		Owner first = this.owners.findById(1).orElseThrow();
+		Owner second = this.owners.findById(1).orElseThrow();
+
+		first.setCity("Springfield");
+		this.owners.saveOrUpdateDetails(first);
+		assertThat(first.getVersion()).isEqualTo(second.getVersion() + 1);
+
+		second.setCity("Shelbyville");
+		assertThatExceptionOfType(OptimisticLockingFailureException.class)
+			.isThrownBy(() -> this.owners.saveOrUpdateDetails(second));
+		assertThat(this.owners.findById(1).orElseThrow().getCity()).isEqualTo("Springfield");
+	}
+
+	@Test
+	@Transactional
+	void shouldIncreaseAggregateVersionOnEveryChange() {
+		// one for each of the 2 pets and 4 visits, all of them never updated
+		long initial = this.owners.findAggregateVersion(6).orElseThrow();
+		assertThat(initial).isEqualTo(6);
+
+		Owner owner6 = this.owners.findById(6).orElseThrow();
+		this.owners.saveOrUpdateDetails(owner6);
+		long afterOwnerUpdate = this.owners.findAggregateVersion(6).orElseThrow();
+		assertThat(afterOwnerUpdate).isGreaterThan(initial);
+
+		Pet pet7 = this.pets.findByIdWithoutVisits(6, 7).orElseThrow();
+		this.pets.updateDetails(6, pet7);
+		long afterPetUpdate = this.owners.findAggregateVersion(6).orElseThrow();
+		assertThat(afterPetUpdate).isGreaterThan(afterOwnerUpdate);
+
+		this.visits.saveDetails(new Visit(LocalDate.now(), "check-up", 7));
+		assertThat(this.owners.findAggregateVersion(6).orElseThrow()).isGreaterThan(afterPetUpdate);
+		assertThat(this.owners.findAggregateVersion(-1)).isEmpty();
+	}
+
 	@Test
 	void shouldFindAllPetTypes() {
 		Collection<PetType> petTypes = this.pets.findPetTypes();
@@ -189,7 +345,7 @@ class ClinicServiceTests {
 
 		String newName = oldName + "X";
 		pet7.setName(newName);
-		this.pets.updateDetails(pet7);
+		this.pets.updateDetails(6, pet7);
 
 		optionalOwner = this.owners.findByIdWithPetsAndVisits(6);
 		assertThat(optionalOwner).isPresent();
@@ -198,6 +354,21 @@ class ClinicServiceTests {
 		assertThat(pet7.getName()).isEqualTo(newName);
 	}
 
+	@Test
+	@Transactional
+	void shouldRejectUpdateOfPetChangedSinceRead() {
+		Pet first = this.pets.findByIdWithoutVisits(6, 7).orElseThrow();
+		Pet second = this.pets.findByIdWithoutVisits(6, 7).orElseThrow();
+
+		first.setName("Sam");
+		this.pets.updateDetails(6, first);
+
+		second.setName("Samy");
+		assertThatExceptionOfType(OptimisticLockingFailureException.class)
+			.isThrownBy(() -> this.pets.updateDetails(6, second));
+		assertThat(this.pets.findByIdWithoutVisits(6, 7).orElseThrow().getName()).isEqualTo("Sam");
+	}
+
 	@Test
 	void shouldFindVets() {
 		Collection<Vet> vets = this.vets.findAll();
@@ -209,6 +380,51 @@ class ClinicServiceTests {
 		assertThat(vet.getSpecialties().get(1).name()).isEqualTo("surgery");
 	}
 
+	@Test
+	void shouldFindEachVetOnce() {
+		// vet 3 has two specialties, which must be nested rather than repeat the vet
+		assertThat(this.vets.findAll()).extracting(Vet::id).containsExactly(1, 2, 3, 4, 5, 6);
+	}
+
+	@Test
+	void shouldFindVetsBySpecialtiesAndLastName() {
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of("radiology", "dentistry"), false, null))
+			.extracting(Vet::id)
+			.containsExactly(2, 3, 5);
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of("surgery", "dentistry"), true, null))
+			.extracting(Vet::id)
+			.containsExactly(3);
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of("surgery", "oncology"), true, null)).isEmpty();
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of(), false, "Ca")).extracting(Vet::id)
+			.containsExactly(1);
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of(), false, "cA")).extracting(Vet::id)
+			.containsExactly(1);
+		assertThat(this.vets.findBySpecialtiesAndLastName(List.of("surgery"), false, "O%")).isEmpty();
+	}
+
+	@Test
+	@Transactional
+	void shouldSaveVisitsInBatch() {
+		long version = this.owners.findAggregateVersion(6).orElseThrow();
+		List<Visit> batch = new ArrayList<>();
+		for (int i = 0; i < 2500; i++) {
+			batch.add(new Visit(LocalDate.now(), "check-up " + i, i % 2 == 0 ? 7 : 8));
+		}
+		batch.add(1, new Visit(LocalDate.now(), "unknown", 999));
+
+		List<BatchItem> items = this.visits.saveAll(batch);
+
+		assertThat(items).hasSize(2501);
+		assertThat(items.get(1)).isEqualTo(new BatchItem(1, null, "Unknown pet: 999"));
+		Map<Integer, String> saved = new HashMap<>();
+		this.visits.findByPetId(7).forEach(visit -> saved.put(visit.id(), visit.description()));
+		this.visits.findByPetId(8).forEach(visit -> saved.put(visit.id(), visit.description()));
+		assertThat(items).filteredOn(item -> item.error() == null)
+			.hasSize(2500)
+			.allSatisfy(item -> assertThat(saved.get(item.id())).isEqualTo(batch.get(item.index()).description()));
+		assertThat(this.owners.findAggregateVersion(6).orElseThrow()).isGreaterThan(version);
+	}
+
 	@Test
 	@Transactional
 	void shouldAddNewVisitForPet() {
@@ -227,6 +443,89 @@ class ClinicServiceTests {
 			.allMatch(value -> value.id() != null);
 	}
 
+	@Test
+	@Transactional
+	void shouldShowNewVisitInCachedOwner() {
+		Owner owner6 = this.owners.findByIdWithPetsAndVisits(6).orElseThrow();
+		int found = owner6.getPet(7).getVisits().size();
+
+		this.visits.saveDetails(new Visit(LocalDate.now(), "test", 7));
+
+		owner6 = this.owners.findByIdWithPetsAndVisits(6).orElseThrow();
+		assertThat(owner6.getPet(7).getVisits()).hasSize(found + 1);
+	}
+
+	@Test
+	@Transactional
+	void shouldLoadRecentVisitsWithOwnerAndPageTheOthers() {
+		for (int day = 1; day <= 6; day++) {
+			this.visits.saveDetails(new Visit(LocalDate.of(2020, 1, day), "visit " + day, 7));
+		}
+
+		Pet pet7 = this.owners.findByIdWithPetsAndVisits(6).orElseThrow().getPet(7);
+		assertThat(pet7.getVisitCount()).isEqualTo(8);
+		assertThat(pet7.getVisits()).hasSize(OwnerRepository.RECENT_VISITS)
+			.extracting(Visit::date)
+			.isSortedAccordingTo(Comparator.reverseOrder());
+
+		List<Visit> all = this.visits.findByPetId(6, 7, null, 10).orElseThrow();
+		assertThat(all).hasSize(8);
+		assertThat(all.subList(0, OwnerRepository.RECENT_VISITS)).extracting(Visit::id)
+			.containsExactlyElementsOf(pet7.getVisits().stream().map(Visit::id).toList());
+
+		Integer last = all.get(OwnerRepository.RECENT_VISITS - 1).id();
+		assertThat(this.visits.findByPetId(6, 7, last, 2).orElseThrow()).extracting(Visit::id)
+			.containsExactly(all.get(5).id(), all.get(6).id());
+		assertThat(this.visits.findByPetId(6, 7, all.get(7).id(), 10).orElseThrow()).isEmpty();
+	}
+
+	@Test
+	void shouldNotFindVisitsOfPetOfAnotherOwner() {
+		assertThat(this.visits.findByPetId(1, 7, null, 10)).isEmpty();
+		assertThat(this.visits.findByPetId(6, 7, null, 10)).isPresent();
+		// pet 1 of owner 1 has no visits
+		assertThat(this.visits.findByPetId(1, 1, null, 10)).hasValue(List.of());
+	}
+
+	@Test
+	void shouldFindOwnerWithoutVisits() {
+		Owner owner = this.owners.findById(6).orElseThrow();
+		assertThat(owner.getLastName()).isEqualTo("Coleman");
+		assertThat(owner.getPets()).isEmpty();
+
+		owner = this.owners.findByIdWithPets(6).orElseThrow();
+		assertThat(owner.getPets()).extracting(Pet::getName).containsExactlyInAnyOrder("Samantha", "Max");
+		assertThat(owner.getPet(7).getVisits()).isEmpty();
+	}
+
+	@Test
+	void shouldFindPetOfOwnerWithRecentVisits() {
+		Pet pet = this.pets.findByIdWithRecentVisits(6, 7).orElseThrow();
+		assertThat(pet.getName()).isEqualTo("Samantha");
+		assertThat(pet.getType().name()).isEqualTo("cat");
+		assertThat(pet.getVisits()).hasSize(2);
+		assertThat(pet.getVisitCount()).isEqualTo(2);
+
+		assertThat(this.pets.findByIdWithRecentVisits(1, 7)).isEmpty();
+	}
+
+	@Test
+	void shouldReturnCopiesOfCachedOwner() {
+		Owner owner = this.owners.findByIdWithPetsAndVisits(6).orElseThrow();
+		String lastName = owner.getLastName();
+		int pets = owner.getPets().size();
+
+		owner.setLastName(lastName + "X");
+		owner.getPet(7).getVisits().clear();
+		owner.getPets().clear();
+
+		Owner cached = this.owners.findByIdWithPetsAndVisits(6).orElseThrow();
+		assertThat(cached).isNotSameAs(owner);
+		assertThat(cached.getLastName()).isEqualTo(lastName);
+		assertThat(cached.getPets()).hasSize(pets);
+		assertThat(cached.getPet(7).getVisits()).hasSize(2);
+	}
+
 	@Test
 	void shouldFindVisitsByPetId() {
 		Optional<Owner> optionalOwner = this.owners.findByIdWithPetsAndVisits(6);
@@ -245,7 +544,7 @@ class ClinicServiceTests {
 
 	@Test
 	void shouldFindPetById() {
-		Optional<Pet> pet = this.pets.findByIdWithoutVisits(4);
+		Optional<Pet> pet = this.pets.findByIdWithoutVisits(3, 4);
 
 		assertThat(pet).isPresent();
 		assertThat(pet.get().getId()).isEqualTo(4);
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Test class for {@link ConnectionLimiter}.
+ */
+class ConnectionLimiterTests {
+
+	private final ConnectionLimiter limiter = new ConnectionLimiter(
+			new DriverManagerDataSource("jdbc:h2:mem:limiter;DB_CLOSE_DELAY=-1"), 1, Duration.ofMillis(100));
+
+	@Test
+	void shouldMakeThreadsWaitForPermit() throws Exception {
+		try (Connection connection = this.limiter.getConnection()) {
+			assertThat(this.limiter.getActive()).isEqualTo(1);
+			assertThat(CompletableFuture.supplyAsync(this::connect)).failsWithin(5, TimeUnit.SECONDS)
+				.withThrowableOfType(ExecutionException.class)
+				.withRootCauseInstanceOf(SQLTransientConnectionException.class);
+		}
+		assertThat(this.limiter.getActive()).isZero();
+
+		try (Connection connection = CompletableFuture.supplyAsync(this::connect).get(5, TimeUnit.SECONDS)) {
+			assertThat(connection.isValid(1)).isTrue();
+		}
+	}
+
+	@Test
+	void shouldNotMakeThreadWaitForNestedConnection() throws Exception {
+		try (Connection outer = this.limiter.getConnection()) {
+			try (Connection nested = this.limiter.getConnection()) {
+				assertThat(nested).isNotSameAs(outer);
+				assertThat(this.limiter.getActive()).isEqualTo(1);
+			}
+			assertThat(this.limiter.getActive()).isEqualTo(1);
+		}
+		assertThat(this.limiter.getActive()).isZero();
+	}
+
+	@Test
+	void shouldKeepPermitUntilAllConnectionsOfThreadAreClosed() throws Exception {
+		Connection outer = this.limiter.getConnection();
+		try (Connection nested = this.limiter.getConnection()) {
+			outer.close();
+			assertThat(this.limiter.getActive()).isEqualTo(1);
+			assertThat(CompletableFuture.supplyAsync(this::connect)).failsWithin(5, TimeUnit.SECONDS)
+				.withThrowableOfType(ExecutionException.class)
+				.withRootCauseInstanceOf(SQLTransientConnectionException.class);
+		}
+		assertThat(this.limiter.getActive()).isZero();
+	}
+
+	@Test
+	void shouldGivePermitBackOnce() throws Exception {
+		Connection connection = this.limiter.getConnection();
+		connection.close();
+		connection.close();
+
+		assertThat(connection.isClosed()).isTrue();
+		assertThat(this.limiter.getActive()).isZero();
+		// with the permit given back twice, another thread would get a connection too
+		try (Connection first = this.limiter.getConnection()) {
+			assertThat(CompletableFuture.supplyAsync(this::connect)).failsWithin(5, TimeUnit.SECONDS)
+				.withThrowableOfType(ExecutionException.class)
+				.withRootCauseInstanceOf(SQLTransientConnectionException.class);
+		}
+	}
+
+	private Connection connect() {
+		try {
+			return this.limiter.getConnection();
+		}
+		catch (SQLException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
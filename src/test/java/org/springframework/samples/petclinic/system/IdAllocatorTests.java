@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.generated.Tables.OWNERS;
+import static org.jooq.generated.Tables.VISITS;
+import static org.jooq.impl.DSL.max;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.PetClinicApplication;
+import org.springframework.test.context.aot.DisabledInAotMode;
+
+/**
+ * Test class for {@link IdAllocator}, allocating more ids than a block holds so that
+ * several are reserved.
+ */
+@SpringBootTest(classes = PetClinicApplication.class)
+@DisabledInNativeImage
+@DisabledInAotMode
+class IdAllocatorTests {
+
+	@Autowired
+	private IdAllocator ids;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Test
+	void shouldAllocateUniqueIdsAfterExistingOnes() throws Exception {
+		int max = this.dsl.select(max(VISITS.ID)).from(VISITS).fetchOne(0, int.class);
+		Set<Integer> allocated = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(() -> {
+					for (int j = 0; j < 50; j++) {
+						assertThat(allocated.add(this.ids.nextId(VISITS.ID))).isTrue();
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		assertThat(allocated).hasSize(200).allSatisfy(id -> assertThat(id).isGreaterThan(max));
+	}
+
+	@Test
+	void shouldInsertRowsWithAllocatedIds() {
+		int id = this.ids.nextId(OWNERS.ID);
+		this.dsl.insertInto(OWNERS)
+			.set(OWNERS.ID, id)
+			.set(OWNERS.FIRST_NAME, "Allocated")
+			.set(OWNERS.LAST_NAME, "Owner")
+			.set(OWNERS.ADDRESS, "1 Main St.")
+			.set(OWNERS.CITY, "Madison")
+			.set(OWNERS.TELEPHONE, "6085551234")
+			.execute();
+
+		assertThat(this.dsl.fetchExists(OWNERS, OWNERS.ID.eq(id))).isTrue();
+		assertThat(this.ids.nextId(OWNERS.ID)).isGreaterThan(id);
+	}
+
+	@Test
+	void shouldAllocateIdsInIncreasingOrder() {
+		int[] allocated = this.ids.nextIds(VISITS.ID, 12);
+
+		assertThat(allocated).hasSize(12).isSorted().doesNotHaveDuplicates();
+	}
+
+	@Test
+	void shouldAllocateIdsAfterRowsInsertedWithTheirOwnIds() {
+		int before = this.ids.nextId(OWNERS.ID);
+		int explicit = before + 1000;
+		this.dsl.insertInto(OWNERS)
+			.set(OWNERS.ID, explicit)
+			.set(OWNERS.FIRST_NAME, "Imported")
+			.set(OWNERS.LAST_NAME, "Owner")
+			.set(OWNERS.ADDRESS, "1 Main St.")
+			.set(OWNERS.CITY, "Madison")
+			.set(OWNERS.TELEPHONE, "6085551234")
+			.execute();
+
+		this.ids.reset(OWNERS.ID);
+
+		assertThat(this.ids.nextId(OWNERS.ID)).isGreaterThan(explicit);
+	}
+
+}
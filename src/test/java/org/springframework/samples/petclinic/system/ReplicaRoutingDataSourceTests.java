@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Test class for {@link ReplicaRoutingDataSource}, with two H2 databases telling which
+ * one they are.
+ */
+class ReplicaRoutingDataSourceTests {
+
+	private final DataSource primary = new DriverManagerDataSource("jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1");
+
+	private final DataSource replica = new DriverManagerDataSource("jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1");
+
+	@BeforeEach
+	void createDatabases() {
+		JdbcTemplate primary = new JdbcTemplate(this.primary);
+		primary.execute("create table if not exists origin (name varchar(20))");
+		primary.update("delete from origin");
+		primary.update("insert into origin values ('primary')");
+		JdbcTemplate replica = new JdbcTemplate(this.replica);
+		replica.execute("create table if not exists origin (name varchar(20))");
+		replica.update("delete from origin");
+		replica.update("insert into origin values ('replica')");
+		replica.execute("create table if not exists lag (seconds double)");
+		replica.update("delete from lag");
+		replica.update("insert into lag values (0)");
+	}
+
+	@AfterEach
+	void endRequest() {
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	void shouldSendReadOnlyTransactionsToReplica() {
+		ReplicaRoutingDataSource routing = routing(this.replica);
+
+		assertThat(origin(routing, true)).isEqualTo("replica");
+		assertThat(origin(routing, false)).isEqualTo("primary");
+		assertThat(new JdbcTemplate(routing).queryForObject("select name from origin", String.class))
+			.isEqualTo("primary");
+	}
+
+	@Test
+	void shouldSendReadOnlyTransactionsOfBrowserToPrimaryAfterWrite() {
+		ReplicaRoutingDataSource routing = routing(this.replica);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+		routing.wrote();
+		routing.wrote();
+
+		assertThat(origin(routing, true)).isEqualTo("primary");
+		assertThat(response.getHeaders("Set-Cookie")).hasSize(1);
+		Cookie cookie = response.getCookie(ReplicaRoutingDataSource.WRITTEN_COOKIE);
+		assertThat(cookie.getMaxAge()).isEqualTo(60);
+		assertThat(cookie.getPath()).isEqualTo("/");
+
+		MockHttpServletRequest next = new MockHttpServletRequest();
+		next.setCookies(cookie);
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(next));
+		assertThat(origin(routing, true)).isEqualTo("primary");
+
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+		assertThat(origin(routing, true)).isEqualTo("replica");
+	}
+
+	@Test
+	void shouldNotStartSessionOnWrite() {
+		ReplicaRoutingDataSource routing = routing(this.replica);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+		routing.wrote();
+
+		assertThat(request.getSession(false)).isNull();
+		assertThat(response.getCookie(ReplicaRoutingDataSource.WRITTEN_COOKIE)).isNotNull();
+	}
+
+	@Test
+	void shouldIgnoreCookieBeyondReadYourWritesWindow() {
+		ReplicaRoutingDataSource routing = routing(this.replica);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setCookies(new Cookie(ReplicaRoutingDataSource.WRITTEN_COOKIE,
+				Long.toString(System.currentTimeMillis() + Duration.ofDays(1).toMillis())));
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+		assertThat(origin(routing, true)).isEqualTo("replica");
+
+		request.setCookies(new Cookie(ReplicaRoutingDataSource.WRITTEN_COOKIE, "soon"));
+		assertThat(origin(routing, true)).isEqualTo("replica");
+	}
+
+	@Test
+	void shouldSendReadOnlyTransactionsToPrimaryWhileReplicaLags() {
+		ReplicaRoutingDataSource routing = routing(this.replica);
+		JdbcTemplate replica = new JdbcTemplate(this.replica);
+		replica.update("update lag set seconds = 10");
+
+		assertThat(origin(routing, true)).isEqualTo("primary");
+		assertThat(routing.getLagSeconds()).isEqualTo(10);
+
+		replica.update("update lag set seconds = 0.5");
+		assertThat(origin(routing, true)).isEqualTo("replica");
+	}
+
+	@Test
+	void shouldSendReadOnlyTransactionsToPrimaryWhenReplicaIsDown() {
+		DataSource down = new DriverManagerDataSource() {
+			@Override
+			public Connection getConnection() throws SQLException {
+				throw new SQLException("Replica down");
+			}
+		};
+		ReplicaRoutingDataSource routing = routing(down);
+
+		assertThat(origin(routing, true)).isEqualTo("primary");
+	}
+
+	/**
+	 * Return a routing data source checking the lag of the replica before each read-only
+	 * transaction, on the calling thread.
+	 */
+	private ReplicaRoutingDataSource routing(DataSource replica) {
+		return new ReplicaRoutingDataSource(this.primary, replica, Duration.ofMinutes(1), Duration.ofSeconds(1),
+				"select seconds from lag", Duration.ZERO, Runnable::run);
+	}
+
+	/**
+	 * Return which database a transaction read from.
+	 */
+	private String origin(DataSource routing, boolean readOnly) {
+		TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(routing));
+		transaction.setReadOnly(readOnly);
+		return transaction
+			.execute(status -> new JdbcTemplate(routing).queryForObject("select name from origin", String.class));
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.PetClinicApplication;
+import org.springframework.test.context.aot.DisabledInAotMode;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Test class for {@link RequestProfiler}.
+ */
+@SpringBootTest(classes = PetClinicApplication.class)
+@AutoConfigureMockMvc
+@DisabledInNativeImage
+@DisabledInAotMode
+class RequestProfilerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	void shouldSendServerTimingOfOwnerPage() throws Exception {
+		String timing = this.mockMvc.perform(get("/owners/1"))
+			.andExpect(status().isOk())
+			.andReturn()
+			.getResponse()
+			.getHeader(RequestProfiler.SERVER_TIMING);
+
+		assertThat(timing).startsWith("db;dur=").contains("fetch;dur=").contains("cache;desc=");
+		assertThat(timing).doesNotContain("desc=\"0 statements\"");
+	}
+
+	@Test
+	void shouldFormatServerTiming() {
+		RequestProfile profile = RequestProfile.current();
+		profile.start();
+		try {
+			profile.statement(2_500_000, 1_000_000);
+			profile.statement(500_000, 0);
+
+			assertThat(profile.serverTiming(false))
+				.hasToString("db;dur=3.0;desc=\"2 statements\", fetch;dur=1.0, cache;desc=\"0 hits, 0 misses\"");
+		}
+		finally {
+			profile.stop();
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.jooq.generated.Tables.OWNERS;
+import static org.jooq.generated.Tables.PETS;
+import static org.jooq.generated.Tables.TYPES;
+import static org.jooq.generated.Tables.VISITS;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.PetClinicApplication;
+import org.springframework.samples.petclinic.owner.Owner;
+import org.springframework.samples.petclinic.owner.OwnerExporter;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.owner.Pet;
+import org.springframework.samples.petclinic.owner.PetRepository;
+import org.springframework.samples.petclinic.owner.Visit;
+import org.springframework.samples.petclinic.owner.VisitRepository;
+import org.springframework.test.context.aot.DisabledInAotMode;
+
+/**
+ * Test class for {@link ShardRouter}, with the owners of the embedded database
+ * partitioned across it and two more H2 databases.
+ */
+@SpringBootTest(classes = PetClinicApplication.class,
+		properties = {
+				"petclinic.shards.urls=jdbc:h2:mem:shard-1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard-2;DB_CLOSE_DELAY=-1",
+				"petclinic.shards.initialize=true" })
+@DisabledInNativeImage
+@DisabledInAotMode
+class ShardRouterTests {
+
+	@Autowired
+	private ShardRouter shards;
+
+	@Autowired
+	private OwnerRepository owners;
+
+	@Autowired
+	private PetRepository pets;
+
+	@Autowired
+	private VisitRepository visits;
+
+	@Autowired
+	private SqlStatsEndpoint sqlStats;
+
+	@Autowired
+	private OwnerExporter exporter;
+
+	@Test
+	void shouldKeepOwnersOnShardOfTheirIdAndReferenceTablesOnAll() {
+		assertThat(this.shards.size()).isEqualTo(3);
+		int types = this.shards.main().fetchCount(TYPES);
+		for (int i = 0; i < this.shards.size(); i++) {
+			int index = i;
+			DSLContext shard = this.shards.shard(i);
+			assertThat(shard.select(OWNERS.ID).from(OWNERS).fetch(OWNERS.ID)).isNotEmpty()
+				.allSatisfy(id -> assertThat(this.shards.shardOf(id)).isEqualTo(index));
+			assertThat(shard.select(PETS.OWNER_ID).from(PETS).fetch(PETS.OWNER_ID))
+				.allSatisfy(id -> assertThat(this.shards.shardOf(id)).isEqualTo(index));
+			assertThat(shard.fetchCount(TYPES)).isEqualTo(types);
+		}
+	}
+
+	@Test
+	void shouldMergeSearchPagesOfAllShards() {
+		long count = this.shards.scatter(dsl -> dsl.fetchCount(OWNERS)).stream().mapToLong(Integer::longValue).sum();
+		Page<Owner> all = this.owners.findByLastNameWithPetsOnly("", Pageable.ofSize(100));
+		assertThat(all.getTotalElements()).isEqualTo(count);
+		assertThat(all.getContent()).hasSize((int) count)
+			.extracting(Owner::getLastName)
+			.isSortedAccordingTo(String.CASE_INSENSITIVE_ORDER);
+		assertThat(this.owners.findByLastNameWithPetsOnly("dAV", Pageable.ofSize(10))).hasSize(2);
+
+		for (CountStrategy strategy : CountStrategy.values()) {
+			List<Integer> offsetIds = new ArrayList<>();
+			List<Integer> keysetIds = new ArrayList<>();
+			Page<Owner> keysetPage = null;
+			for (int pageNumber = 0; pageNumber * 3 < count; pageNumber++) {
+				Pageable pageable = Pageable.of(pageNumber, 3).withCountStrategy(strategy);
+				Page<Owner> offsetPage = this.owners.findByLastNameWithPetsOnly("", pageable);
+				keysetPage = this.owners.findByLastNameWithPetsOnly("",
+						(keysetPage == null) ? pageable : pageable.after(Cursor.decode(keysetPage.getNextCursor())));
+				offsetPage.forEach(owner -> offsetIds.add(owner.getId()));
+				keysetPage.forEach(owner -> keysetIds.add(owner.getId()));
+			}
+			assertThat(keysetPage.next()).isNull();
+			assertThat(keysetPage.getTotalElements()).isEqualTo(count);
+			assertThat(offsetIds).containsExactlyElementsOf(all.getContent().stream().map(Owner::getId).toList());
+			assertThat(keysetIds).isEqualTo(offsetIds);
+		}
+	}
+
+	@Test
+	void shouldWaitForOtherShardsWhenFirstShardFails() {
+		AtomicInteger done = new AtomicInteger();
+		DSLContext main = this.shards.main();
+
+		assertThatIllegalStateException().isThrownBy(() -> this.shards.scatter(dsl -> {
+			if (dsl == main) {
+				throw new IllegalStateException("First shard failed");
+			}
+			try {
+				TimeUnit.MILLISECONDS.sleep(200);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			done.incrementAndGet();
+			return dsl.fetchCount(OWNERS);
+		})).withMessage("First shard failed");
+		assertThat(done).hasValue(this.shards.size() - 1);
+	}
+
+	@Test
+	void shouldAttributeStatementsOfAllShardsToRepositoryMethod() {
+		this.sqlStats.reset();
+		this.owners.findByLastNameWithPetsOnly("", Pageable.ofSize(5));
+
+		assertThat(this.sqlStats.statements(null)).extracting(SqlStatistics.Statement::method)
+			.contains("OwnerRepository.findByLastNameWithPetsOnly")
+			.doesNotContain("(unknown)", "ShardRouter.scatter", "JooqHelper.fetchPage");
+	}
+
+	@Test
+	void shouldExportOwnersOfAllShards() {
+		List<Integer> ids = this.shards.scatter(dsl -> dsl.select(OWNERS.ID).from(OWNERS).fetch(OWNERS.ID))
+			.stream()
+			.flatMap(List::stream)
+			.toList();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		assertThat(this.exporter.exportOwners(OwnerExporter.Format.CSV, out)).isEqualTo(ids.size());
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+		assertThat(lines).hasSize(ids.size() + 1);
+		assertThat(lines[0]).startsWith("id,");
+		assertThat(List.of(lines).subList(1, lines.length))
+			.extracting(line -> Integer.valueOf(line.substring(0, line.indexOf(','))))
+			.containsExactlyInAnyOrderElementsOf(ids);
+	}
+
+	@Test
+	void shouldSaveOwnerPetAndVisitOnShardOfOwner() {
+		Owner owner = new Owner();
+		owner.setFirstName("Sam");
+		owner.setLastName("Sharding");
+		owner.setAddress("4, Evans Street");
+		owner.setCity("Wollongong");
+		owner.setTelephone("4444444444");
+		Integer ownerId = this.owners.saveOrUpdateDetails(owner);
+		DSLContext shard = this.shards.forOwner(ownerId);
+		assertThat(shard.fetchExists(OWNERS, OWNERS.ID.eq(ownerId))).isTrue();
+
+		Pet pet = new Pet();
+		pet.setName("Shardy");
+		pet.setType(this.pets.findPetTypes().get(0));
+		pet.setBirthDate(LocalDate.of(2020, 1, 1));
+		this.pets.saveDetails(ownerId, pet);
+		Integer petId = shard.select(PETS.ID).from(PETS).where(PETS.OWNER_ID.eq(ownerId)).fetchOne(PETS.ID);
+		this.visits.saveDetails(new Visit(LocalDate.now(), "check-up", petId));
+
+		assertThat(shard.fetchCount(VISITS, VISITS.PET_ID.eq(petId))).isEqualTo(1);
+		assertThat(this.visits.findByPetId(ownerId, petId, null, 10).orElseThrow()).extracting(Visit::description)
+			.containsExactly("check-up");
+		assertThat(this.owners.findByIdWithPetsAndVisits(ownerId)).get()
+			.satisfies(saved -> assertThat(saved.getPet("Shardy").getVisits()).hasSize(1));
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Maximum number of SQL statements that a test may execute through the jOOQ
+ * <code>DSLContext</code> of its Spring application context, so that a regression such as
+ * a query per row of a list fails the build. Only the statements executed by the thread
+ * of the test are counted, which includes the requests performed with
+ * <code>MockMvc</code> but not those of a server on a random port, from the start of the
+ * test method, after its <code>@BeforeEach</code> methods.
+ * <p>
+ * On a test class, the budget applies to each of its test methods that does not declare
+ * one of its own. Budgets of single requests are checked with
+ * {@link SqlBudgetExtension#statementsAtMost(int)}.
+ * </p>
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@ExtendWith(SqlBudgetExtension.class)
+public @interface SqlBudget {
+
+	/**
+	 * The maximum number of statements.
+	 */
+	int max();
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.jupiter.api.extension.AfterTestExecutionCallback;
+import org.junit.jupiter.api.extension.BeforeTestExecutionCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+/**
+ * Extension checking the {@link SqlBudget} of the tests: it counts the statements that
+ * the thread of a test executes through the <code>DSLContext</code> of its application
+ * context, with a listener added to the context the first time, and fails the test with
+ * the list of the statements if they exceed its budget.
+ */
+public class SqlBudgetExtension implements BeforeTestExecutionCallback, AfterTestExecutionCallback {
+
+	private static final Namespace NAMESPACE = Namespace.create(SqlBudgetExtension.class);
+
+	/**
+	 * Return a matcher of a <code>MockMvc</code> result that fails if the request
+	 * executed more than the given number of SQL statements, as counted by the
+	 * {@link RequestProfiler} of the application.
+	 */
+	public static ResultMatcher statementsAtMost(int max) {
+		return result -> {
+			int statements = RequestProfile.current().getStatements();
+			if (statements > max) {
+				throw new AssertionError(String.format("%s %s executed %d SQL statements, over its budget of %d",
+						result.getRequest().getMethod(), result.getRequest().getRequestURI(), statements, max));
+			}
+		};
+	}
+
+	@Override
+	public void beforeTestExecution(ExtensionContext context) {
+		if (budget(context).isEmpty()) {
+			return;
+		}
+		DSLContext dsl = SpringExtension.getApplicationContext(context).getBean(DSLContext.class);
+		StatementCounter counter = StatementCounter.on(dsl.configuration());
+		counter.start();
+		context.getStore(NAMESPACE).put(StatementCounter.class, counter);
+	}
+
+	@Override
+	public void afterTestExecution(ExtensionContext context) {
+		StatementCounter counter = context.getStore(NAMESPACE).remove(StatementCounter.class, StatementCounter.class);
+		if (counter == null) {
+			return;
+		}
+		List<String> statements = counter.stop();
+		int max = budget(context).orElseThrow().max();
+		if (statements.size() > max) {
+			throw new AssertionError(String.format("%d SQL statements executed, over the budget of %d:%n%s",
+					statements.size(), max, String.join(System.lineSeparator(), statements)));
+		}
+	}
+
+	private static Optional<SqlBudget> budget(ExtensionContext context) {
+		return AnnotationSupport.findAnnotation(context.getRequiredTestMethod(), SqlBudget.class)
+			.or(() -> AnnotationSupport.findAnnotation(context.getRequiredTestClass(), SqlBudget.class));
+	}
+
+	/**
+	 * Records the statements executed by one thread while started.
+	 */
+	private static final class StatementCounter implements ExecuteListener {
+
+		private final List<String> statements = new CopyOnWriteArrayList<>();
+
+		private volatile Thread thread;
+
+		/**
+		 * Return the counter of the given configuration, adding one to its listeners if
+		 * needed.
+		 */
+		static synchronized StatementCounter on(Configuration configuration) {
+			ExecuteListenerProvider[] providers = configuration.executeListenerProviders();
+			for (ExecuteListenerProvider provider : providers) {
+				if (provider.provide() instanceof StatementCounter counter) {
+					return counter;
+				}
+			}
+			StatementCounter counter = new StatementCounter();
+			configuration
+				.set(Stream.concat(Arrays.stream(providers), Stream.of(new DefaultExecuteListenerProvider(counter)))
+					.toArray(ExecuteListenerProvider[]::new));
+			return counter;
+		}
+
+		void start() {
+			this.statements.clear();
+			this.thread = Thread.currentThread();
+		}
+
+		List<String> stop() {
+			this.thread = null;
+			return List.copyOf(this.statements);
+		}
+
+		@Override
+		public void executeStart(ExecuteContext ctx) {
+			if (Thread.currentThread() == this.thread) {
+				this.statements.add((ctx.sql() != null) ? ctx.sql() : String.join("; ", ctx.batchSQL()));
+			}
+		}
+
+	}
+
+}
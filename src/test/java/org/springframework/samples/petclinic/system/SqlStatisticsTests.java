@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.PetClinicApplication;
+import org.springframework.samples.petclinic.owner.OwnerRepository;
+import org.springframework.samples.petclinic.vet.VetRepository;
+import org.springframework.test.context.aot.DisabledInAotMode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Test class for {@link SqlStatistics} and {@link SqlStatsEndpoint}.
+ */
+@SpringBootTest(classes = PetClinicApplication.class)
+@DisabledInNativeImage
+@DisabledInAotMode
+class SqlStatisticsTests {
+
+	@Autowired
+	private VetRepository vets;
+
+	@Autowired
+	private OwnerRepository owners;
+
+	@Autowired
+	private SqlStatsEndpoint endpoint;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void shouldRecordStatementsByRepositoryMethod() {
+		this.endpoint.reset();
+		int count = this.vets.fetchAll().size();
+		this.vets.fetchAll();
+
+		assertThat(this.endpoint.statements(null)).anySatisfy(statement -> {
+			assertThat(statement.method()).isEqualTo("VetRepository.fetchAll");
+			assertThat(statement.sql()).containsIgnoringCase("select");
+			assertThat(statement.calls()).isEqualTo(2);
+			assertThat(statement.rows()).isGreaterThanOrEqualTo(2L * count);
+		});
+		assertThat(this.meterRegistry.get("petclinic.sql")
+			.tag("method", "VetRepository.fetchAll")
+			.tag("type", "read")
+			.timer()
+			.count()).isGreaterThanOrEqualTo(2);
+	}
+
+	@Test
+	void shouldRecordStatementsOfHelpersByRepositoryMethod() {
+		this.endpoint.reset();
+		this.owners.findByLastNameWithPetsOnly("Davis", Pageable.ofSize(5));
+
+		assertThat(this.endpoint.statements(null)).extracting(SqlStatistics.Statement::method)
+			.contains("OwnerRepository.findByLastNameWithPetsOnly")
+			.doesNotContain("ShardRouter.scatter", "JooqHelper.fetchPage");
+	}
+
+	@Test
+	void shouldCollapseListsOfBindVariables() {
+		assertThat(SqlStatistics.fingerprint("select * from pets where id in (?, ?, ?)"))
+			.isEqualTo("select * from pets where id in (?, ...)");
+		assertThat(SqlStatistics.fingerprint("insert into visits values (?, ?), (?, ?), (?, ?)"))
+			.isEqualTo("insert into visits values (?, ...), ...");
+		assertThat(SqlStatistics.fingerprint("select * from owners where id = ?"))
+			.isEqualTo("select * from owners where id = ?");
+	}
+
+}
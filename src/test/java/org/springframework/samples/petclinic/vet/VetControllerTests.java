@@ -16,13 +16,21 @@
 
 package org.springframework.samples.petclinic.vet;
 
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledInNativeImage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.samples.petclinic.system.Page;
 import org.springframework.samples.petclinic.system.Pageable;
 import org.springframework.test.context.aot.DisabledInAotMode;
@@ -31,6 +39,8 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -40,7 +50,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * Test class for the {@link VetController}
  */
 
-@WebMvcTest(VetController.class)
+@WebMvcTest(value = VetController.class,
+		includeFilters = @ComponentScan.Filter(value = VetsResponseCache.class, type = FilterType.ASSIGNABLE_TYPE))
 @DisabledInNativeImage
 @DisabledInAotMode
 class VetControllerTests {
@@ -51,6 +62,9 @@ class VetControllerTests {
 	@MockitoBean
 	private VetRepository vets;
 
+	@MockitoBean
+	private VetIndex vetIndex;
+
 	private Vet james() {
 		return new Vet(1, "James", "Carter");
 	}
@@ -84,7 +98,90 @@ class VetControllerTests {
 		ResultActions actions = mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
 			.andExpect(status().isOk());
 		actions.andExpect(content().contentType(MediaType.APPLICATION_JSON))
-			.andExpect(jsonPath("$.vetList[0].id").value(1));
+			.andExpect(jsonPath("$.vetList[0].id").value(1))
+			.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=60, public"))
+			.andExpect(header().exists(HttpHeaders.ETAG));
+	}
+
+	@Test
+	void testShowResourcesVetListNotModified() throws Exception {
+		String etag = mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+			.andReturn()
+			.getResponse()
+			.getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, etag))
+			.andExpect(status().isNotModified())
+			.andExpect(header().string(HttpHeaders.ETAG, etag))
+			.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void testShowResourcesVetListGzipped() throws Exception {
+		MockHttpServletResponse plain = mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+			.andReturn()
+			.getResponse();
+		MockHttpServletResponse gzipped = mockMvc
+			.perform(get("/vets").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+			.andReturn()
+			.getResponse();
+		assertThat(gzipped.getHeader(HttpHeaders.ETAG)).isNotEqualTo(plain.getHeader(HttpHeaders.ETAG));
+		try (GZIPInputStream body = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+			assertThat(body.readAllBytes()).isEqualTo(plain.getContentAsByteArray());
+		}
+	}
+
+	@Test
+	void testShowResourcesVetListNotGzippedWhenRefused() throws Exception {
+		for (String acceptEncoding : List.of("gzip;q=0", "deflate", "*;q=0", "*, gzip; q=0.0", "br;q=1, GZIP;q=0")) {
+			mockMvc
+				.perform(get("/vets").accept(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+		}
+		for (String acceptEncoding : List.of("gzip;q=0.5", "br, *", "x-gzip", "deflate, gzip;q=1.0")) {
+			mockMvc
+				.perform(get("/vets").accept(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+		}
+	}
+
+	@Test
+	void testShowResourcesVetListEncodedAgainWhenVetsChange() throws Exception {
+		String etag = mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+			.andReturn()
+			.getResponse()
+			.getHeader(HttpHeaders.ETAG);
+		given(this.vets.findAll()).willReturn(Lists.newArrayList(james()));
+		mockMvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, etag))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.vetList.length()").value(1))
+			.andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+	}
+
+	@Test
+	void testSearchVets() throws Exception {
+		given(this.vetIndex.search(List.of("radiology", "surgery"), true, "Le")).willReturn(List.of(helen()));
+		mockMvc
+			.perform(get("/vets?specialty=radiology&specialty=surgery&match=all&name=Le")
+				.accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.vetList.length()").value(1))
+			.andExpect(jsonPath("$.vetList[0].id").value(2));
+	}
+
+	@Test
+	void testSearchVetsWithUnknownMatch() throws Exception {
+		mockMvc.perform(get("/vets?specialty=radiology&match=most").accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void testShowResourcesVetListNotAcceptable() throws Exception {
+		mockMvc.perform(get("/vets").accept(MediaType.TEXT_PLAIN)).andExpect(status().isNotAcceptable());
 	}
 
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Test class for {@link VetIndex}
+ */
+@ExtendWith(MockitoExtension.class)
+class VetIndexTests {
+
+	private static final Specialty RADIOLOGY = new Specialty(1, "radiology");
+
+	private static final Specialty SURGERY = new Specialty(2, "surgery");
+
+	private static final Specialty DENTISTRY = new Specialty(3, "dentistry");
+
+	private static final List<Vet> VETS = List.of(new Vet(1, "James", "Carter", Set.of()),
+			new Vet(2, "Helen", "Leary", Set.of(RADIOLOGY)), new Vet(3, "Linda", "Douglas", Set.of(SURGERY, DENTISTRY)),
+			new Vet(4, "Rafael", "Ortega", Set.of(SURGERY)), new Vet(5, "Henry", "Stevens", Set.of(RADIOLOGY)));
+
+	@Mock
+	private VetRepository vets;
+
+	private final AtomicLong now = new AtomicLong();
+
+	private VetIndex index;
+
+	@BeforeEach
+	void setup() {
+		this.index = new VetIndex(this.vets, Duration.ofMinutes(10), Runnable::run, this.now::get);
+	}
+
+	@Test
+	void shouldSearchDatabaseUntilLoaded() {
+		given(this.vets.findBySpecialtiesAndLastName(List.of("surgery"), false, null)).willReturn(VETS.subList(2, 4));
+		given(this.vets.findAll()).willReturn(VETS);
+
+		assertThat(this.index.search(List.of("surgery"), false, null)).extracting(Vet::id).containsExactly(3, 4);
+		assertThat(this.index.search(List.of("surgery"), false, null)).extracting(Vet::id).containsExactly(3, 4);
+
+		verify(this.vets, times(1)).findBySpecialtiesAndLastName(List.of("surgery"), false, null);
+		verify(this.vets, times(1)).findAll();
+	}
+
+	@Test
+	void shouldSearchAnySpecialty() {
+		load();
+		assertThat(this.index.search(List.of("radiology", "dentistry"), false, null)).extracting(Vet::id)
+			.containsExactly(2, 3, 5);
+		assertThat(this.index.search(List.of("radiology", "oncology"), false, null)).extracting(Vet::id)
+			.containsExactly(2, 5);
+		assertThat(this.index.search(List.of("oncology"), false, null)).isEmpty();
+	}
+
+	@Test
+	void shouldSearchAllSpecialties() {
+		load();
+		assertThat(this.index.search(List.of("surgery", "dentistry"), true, null)).extracting(Vet::id)
+			.containsExactly(3);
+		assertThat(this.index.search(List.of("surgery"), true, null)).extracting(Vet::id).containsExactly(3, 4);
+		assertThat(this.index.search(List.of("surgery", "oncology"), true, null)).isEmpty();
+	}
+
+	@Test
+	void shouldSearchByLastNamePrefix() {
+		load();
+		assertThat(this.index.search(List.of(), false, "Ca")).extracting(Vet::id).containsExactly(1);
+		assertThat(this.index.search(List.of(), false, "cA")).extracting(Vet::id).containsExactly(1);
+		assertThat(this.index.search(List.of(), false, "Carters")).isEmpty();
+		assertThat(this.index.search(List.of("surgery"), true, "D")).extracting(Vet::id).containsExactly(3);
+	}
+
+	@Test
+	void shouldLoadAgainAfterRefreshInterval() {
+		load();
+		given(this.vets.findAll()).willReturn(VETS.subList(0, 2));
+
+		this.now.addAndGet(Duration.ofMinutes(10).toNanos());
+		assertThat(this.index.search(List.of(), false, "S")).extracting(Vet::id).containsExactly(5);
+		assertThat(this.index.search(List.of(), false, "S")).isEmpty();
+
+		verify(this.vets, times(2)).findAll();
+	}
+
+	private void load() {
+		given(this.vets.findAll()).willReturn(VETS);
+		this.index.search(List.of(), false, null);
+	}
+
+}